@@ -0,0 +1,17 @@
+package che.service.utils.json;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记保存HTML转义文本的字段, 输出JSON时进行HTML解码.
+ * 用new JsonMapper(include, false)创建的Mapper只解码有该注解的字段, 其余字符串原样输出
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface HtmlUnescape {
+}
@@ -0,0 +1,59 @@
+package che.service.utils.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.IOException;
+
+/**
+ * 输出字符串时进行HTML解码. 先查找'&amp;', 没有实体时直接输出原字符串, 不再对每个航班号、机场代码都做一次
+ * unescapeHtml4. unescapeAll为false时只解码有@HtmlUnescape的字段
+ */
+public class HtmlUnescapeStringSerializer extends JsonSerializer<String> implements ContextualSerializer {
+
+	private static final HtmlUnescapeStringSerializer UNESCAPE = new HtmlUnescapeStringSerializer(true);
+
+	private static final HtmlUnescapeStringSerializer RAW = new HtmlUnescapeStringSerializer(false);
+
+	private final boolean unescape;
+
+	private HtmlUnescapeStringSerializer(boolean unescape) {
+		this.unescape = unescape;
+	}
+
+	/**
+	 * @param unescapeAll true解码所有字符串, false只解码有@HtmlUnescape的字段
+	 */
+	public static HtmlUnescapeStringSerializer of(boolean unescapeAll) {
+		return unescapeAll ? UNESCAPE : RAW;
+	}
+
+	@Override
+	public void serialize(String value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+		if (value != null) {
+			jgen.writeString(unescape ? unescapeHtml(value) : value);
+		}
+	}
+
+	@Override
+	public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) {
+		if (!unescape && property != null && property.getAnnotation(HtmlUnescape.class) != null) {
+			return UNESCAPE;
+		}
+		return this;
+	}
+
+	/**
+	 * 不含'&amp;'时不可能有HTML实体, 直接返回原字符串
+	 */
+	public static String unescapeHtml(String value) {
+		if (value.indexOf('&') < 0) {
+			return value;
+		}
+		return StringEscapeUtils.unescapeHtml4(value);
+	}
+}
@@ -1,6 +1,7 @@
 package che.service.utils.json;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser.Feature;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -8,19 +9,23 @@ import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.util.JSONPObject;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 简单封装Jackson，实现JSON String<->Java Object的Mapper.
  * 封装不同的输出风格, 使用不同的builder函数创建实例.
+ * 每种风格一个单例, 按类型缓存ObjectReader/ObjectWriter, 配置需在第一次读写之前完成.
  * @author ThinkGem
  * @version 2013-11-15
  */
@@ -30,13 +35,42 @@ public class JsonMapper extends ObjectMapper {
 
 	private static Logger logger = LoggerFactory.getLogger(JsonMapper.class);
 
-	private static JsonMapper mapper;
+	/**
+	 * 类型 -> 预先构建的reader/writer, 修改配置时清空
+	 */
+	private final transient ConcurrentMap<JavaType, ObjectReader> readers = new ConcurrentHashMap<JavaType, ObjectReader>();
+
+	private final transient ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+	/**
+	 * 元素类型 -> ArrayList&lt;元素类型&gt;, fromJsonListString使用
+	 */
+	private final transient ConcurrentMap<Class<?>, JavaType> listTypes = new ConcurrentHashMap<Class<?>, JavaType>();
+
+	/**
+	 * 类加载时创建, 由JVM保证只创建一次并安全发布
+	 */
+	private static class DefaultHolder {
+		private static final JsonMapper INSTANCE = new JsonMapper().enableSimple();
+	}
+
+	private static class NonDefaultHolder {
+		private static final JsonMapper INSTANCE = new JsonMapper(Include.NON_DEFAULT);
+	}
 
 	public JsonMapper() {
 		this(Include.NON_NULL);
 	}
 
 	public JsonMapper(Include include) {
+		this(include, true);
+	}
+
+	/**
+	 * @param include     输出时包含属性的风格
+	 * @param unescapeAll true对所有字符串进行HTML解码, false只解码有@HtmlUnescape的字段
+	 */
+	public JsonMapper(Include include, boolean unescapeAll) {
 		// 设置输出时包含属性的风格
 		if (include != null) {
 			this.setSerializationInclusion(include);
@@ -66,17 +100,8 @@ public class JsonMapper extends ObjectMapper {
 //				}
 //	        }));
 //		}
-		// 进行HTML解码。
-		this.registerModule(new SimpleModule().addSerializer(String.class, new JsonSerializer<String>(){
-			@Override
-			public void serialize(String value, JsonGenerator jgen,
-					SerializerProvider provider) throws IOException,
-                    JsonProcessingException {
-				if (value != null){
-					jgen.writeString(StringEscapeUtils.unescapeHtml4(value));
-				}
-			}
-        }));
+		// 进行HTML解码, 不含'&'的字符串直接输出
+		this.registerModule(new SimpleModule().addSerializer(String.class, HtmlUnescapeStringSerializer.of(unescapeAll)));
 		// 设置时区
 		this.setTimeZone(TimeZone.getTimeZone("GMT+8:00"));
 	}
@@ -85,20 +110,14 @@ public class JsonMapper extends ObjectMapper {
 	 * 创建只输出非Null且非Empty(如List.isEmpty)的属性到Json字符串的Mapper,建议在外部接口中使用.
 	 */
 	public static JsonMapper getInstance() {
-		if (mapper == null){
-			mapper = new JsonMapper().enableSimple();
-		}
-		return mapper;
+		return DefaultHolder.INSTANCE;
 	}
 
 	/**
 	 * 创建只输出初始值被改变的属性到Json字符串的Mapper, 最节约的存储方式，建议在内部接口中使用。
 	 */
 	public static JsonMapper nonDefaultMapper() {
-		if (mapper == null){
-			mapper = new JsonMapper(Include.NON_DEFAULT);
-		}
-		return mapper;
+		return NonDefaultHolder.INSTANCE;
 	}
 	
 	/**
@@ -108,7 +127,7 @@ public class JsonMapper extends ObjectMapper {
 	 */
 	public String toJson(Object object) {
 		try {
-			return this.writeValueAsString(object);
+			return object == null ? this.writeValueAsString(null) : writerFor(object.getClass()).writeValueAsString(object);
 		} catch (IOException e) {
 			logger.warn("write to json string error:" + object, e);
 			return null;
@@ -129,7 +148,7 @@ public class JsonMapper extends ObjectMapper {
 			return null;
 		}
 		try {
-			return this.readValue(jsonString, clazz);
+			return readerFor(this.constructType(clazz)).readValue(jsonString);
 		} catch (IOException e) {
 			logger.warn("parse json string error:" + jsonString, e);
 			return null;
@@ -146,13 +165,91 @@ public class JsonMapper extends ObjectMapper {
 			return null;
 		}
 		try {
-			return (T) this.readValue(jsonString, javaType);
+			return (T) readerFor(javaType).readValue(jsonString);
 		} catch (IOException e) {
 			logger.warn("parse json string error:" + jsonString, e);
 			return null;
 		}
 	}
 
+	/**
+	 * 把对象直接写入输出流(UTF-8), 不生成中间的String, 用于直接写servlet的输出流.
+	 * 写完后flush, 不关闭输出流
+	 */
+	public void writeTo(OutputStream out, Object object) throws IOException {
+		JsonGenerator generator = this.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		if (object == null) {
+			this.writeValue(generator, null);
+		} else {
+			writerFor(object.getClass()).writeValue(generator, object);
+		}
+		generator.flush();
+	}
+
+	/**
+	 * 从输入流反序列化POJO或简单Collection
+	 */
+	public <T> T read(InputStream in, Class<T> clazz) throws IOException {
+		return readerFor(this.constructType(clazz)).readValue(in);
+	}
+
+	/**
+	 * 从输入流反序列化复杂Collection, 见createCollectionType
+	 */
+	public <T> T read(InputStream in, JavaType javaType) throws IOException {
+		return readerFor(javaType).readValue(in);
+	}
+
+	/**
+	 * 取该类型的ObjectReader, 每个类型只构建一次
+	 */
+	public ObjectReader readerFor(JavaType javaType) {
+		ObjectReader reader = readers.get(javaType);
+		if (reader == null) {
+			reader = this.reader(javaType);
+			ObjectReader exists = readers.putIfAbsent(javaType, reader);
+			if (exists != null) {
+				reader = exists;
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * 取该类型的ObjectWriter, 根序列化器只查找一次
+	 */
+	public ObjectWriter writerFor(Class<?> clazz) {
+		ObjectWriter writer = writers.get(clazz);
+		if (writer == null) {
+			writer = this.writerWithType(clazz);
+			ObjectWriter exists = writers.putIfAbsent(clazz, writer);
+			if (exists != null) {
+				writer = exists;
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * ArrayList&lt;clazz&gt;的类型, 每个元素类型只构建一次
+	 */
+	public JavaType listTypeOf(Class<?> clazz) {
+		JavaType javaType = listTypes.get(clazz);
+		if (javaType == null) {
+			javaType = createCollectionType(ArrayList.class, clazz);
+			listTypes.putIfAbsent(clazz, javaType);
+		}
+		return javaType;
+	}
+
+	/**
+	 * 配置改变后已构建的reader/writer失效
+	 */
+	private void clearCaches() {
+		readers.clear();
+		writers.clear();
+	}
+
 	/**
 	 * 構造泛型的Collection Type如:
 	 * ArrayList<MyBean>, 则调用constructCollectionType(ArrayList.class,MyBean.class)
@@ -192,6 +289,7 @@ public class JsonMapper extends ObjectMapper {
 	public JsonMapper enableEnumUseToString() {
 		this.enable(SerializationFeature.WRITE_ENUMS_USING_TO_STRING);
 		this.enable(DeserializationFeature.READ_ENUMS_USING_TO_STRING);
+		clearCaches();
 		return this;
 	}
 
@@ -202,6 +300,7 @@ public class JsonMapper extends ObjectMapper {
 	public JsonMapper enableJaxbAnnotation() {
 		JaxbAnnotationModule module = new JaxbAnnotationModule();
 		this.registerModule(module);
+		clearCaches();
 		return this;
 	}
 
@@ -212,6 +311,7 @@ public class JsonMapper extends ObjectMapper {
 	public JsonMapper enableSimple() {
 		this.configure(Feature.ALLOW_SINGLE_QUOTES, true);
 		this.configure(Feature.ALLOW_UNQUOTED_FIELD_NAMES, true);
+		clearCaches();
 		return this;
 	}
 	
@@ -259,8 +359,8 @@ public class JsonMapper extends ObjectMapper {
 	
 	@SuppressWarnings("unchecked")
 	public static <T> List<T> fromJsonListString(String jsonListString, Class<?> clazz){
-		JavaType javaType=JsonMapper.getInstance().createCollectionType(ArrayList.class,clazz);
-		return (List<T>) JsonMapper.getInstance().fromJson(jsonListString, javaType);
+		JsonMapper mapper = JsonMapper.getInstance();
+		return (List<T>) mapper.fromJson(jsonListString, mapper.listTypeOf(clazz));
 	}
 	
 
@@ -0,0 +1,435 @@
+package che.service.utils.mongo;
+
+import che.service.utils.page.Page;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClientSettings;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.SocketSettings;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MongoDB异步工具类, 与MongoDBUtil对应, 基于异步驱动, 所有方法立即返回ListenableFuture, 不占用调用线程等待连接和结果.
+ * 一个页面需要并发查多个collection时(航班、运价、余座), 可以同时发出查询再等待结果<br>
+ * 出错时与MongoDBUtil一致: 记录日志和错误数, future正常完成, 结果为false/null/0<br>
+ * 通过mongos.async=true开启, 连接配置与MongoDBUtil共用mongos.*
+ */
+@Component
+public class AsyncMongoDBUtil implements InitializingBean {
+
+	protected static Logger logger = LoggerFactory.getLogger(AsyncMongoDBUtil.class);
+
+	private static MongoClient mongoClient;
+
+	/**
+	 * dbName -> 实体类 -> collection
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<Class<?>, MongoCollection<?>>> entityCollections = new ConcurrentHashMap<String, ConcurrentMap<Class<?>, MongoCollection<?>>>();
+
+	@Resource
+	private Environment env;
+
+	/**
+	 * 获取实体对应的collection, 按(dbName, 实体类)缓存, 读写选项与MongoDBUtil相同
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> MongoCollection<T> getCollection(String dbName, Class<?> clazz) {
+		if (mongoClient == null) {
+			throw new IllegalStateException("async mongo client is not enabled, set mongos.async=true");
+		}
+		if (StringUtils.isBlank(dbName)) {
+			throw new IllegalArgumentException("dbName is blank");
+		}
+		ConcurrentMap<Class<?>, MongoCollection<?>> byClass = entityCollections.get(dbName);
+		if (byClass == null) {
+			byClass = new ConcurrentHashMap<Class<?>, MongoCollection<?>>();
+			ConcurrentMap<Class<?>, MongoCollection<?>> exists = entityCollections.putIfAbsent(dbName, byClass);
+			if (exists != null) {
+				byClass = exists;
+			}
+		}
+		MongoCollection<T> collection = (MongoCollection<T>) byClass.get(clazz);
+		if (collection == null) {
+			collection = (MongoCollection<T>) MongoDBUtil.getDefaultOptions(clazz)
+					.apply(mongoClient.getDatabase(dbName).getCollection(MongoDBUtil.getTableName(clazz), clazz));
+			byClass.putIfAbsent(clazz, collection);
+		}
+		MongoOperationOptions scoped = MongoOptionsScope.current();
+		return scoped == null ? collection : scoped.apply(collection);
+	}
+
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<Boolean> insertOne(final String dbName, final Class<?> clazz, T entity) {
+		final SettableFuture<Boolean> future = SettableFuture.create();
+		try {
+			MongoCollection<T> coll = getCollection(dbName, clazz);
+			coll.insertOne(entity, new SingleResultCallback<Void>() {
+				@Override
+				public void onResult(Void result, Throwable t) {
+					MongoQueryCache.invalidate(dbName, clazz);
+					complete(future, t == null, t, "insertOne", clazz, false);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, false, e, "insertOne", clazz, false);
+		}
+		return future;
+	}
+
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<Boolean> insertMany(final String dbName, final Class<?> clazz, List<T> entityList) {
+		final SettableFuture<Boolean> future = SettableFuture.create();
+		try {
+			MongoCollection<T> coll = getCollection(dbName, clazz);
+			coll.insertMany(entityList, new SingleResultCallback<Void>() {
+				@Override
+				public void onResult(Void result, Throwable t) {
+					MongoQueryCache.invalidate(dbName, clazz);
+					complete(future, t == null, t, "insertMany", clazz, false);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, false, e, "insertMany", clazz, false);
+		}
+		return future;
+	}
+
+	public static ListenableFuture<Boolean> deleteOne(final String dbName, final Class<?> clazz, Bson filter) {
+		final SettableFuture<Boolean> future = SettableFuture.create();
+		try {
+			MongoCollection<Object> coll = getCollection(dbName, clazz);
+			coll.deleteOne(filter, new SingleResultCallback<DeleteResult>() {
+				@Override
+				public void onResult(DeleteResult result, Throwable t) {
+					MongoQueryCache.invalidate(dbName, clazz);
+					complete(future, t == null, t, "deleteOne", clazz, false);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, false, e, "deleteOne", clazz, false);
+		}
+		return future;
+	}
+
+	public static ListenableFuture<Boolean> deleteMany(final String dbName, final Class<?> clazz, Bson filter) {
+		final SettableFuture<Boolean> future = SettableFuture.create();
+		try {
+			MongoCollection<Object> coll = getCollection(dbName, clazz);
+			coll.deleteMany(filter, new SingleResultCallback<DeleteResult>() {
+				@Override
+				public void onResult(DeleteResult result, Throwable t) {
+					MongoQueryCache.invalidate(dbName, clazz);
+					complete(future, t == null, t, "deleteMany", clazz, false);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, false, e, "deleteMany", clazz, false);
+		}
+		return future;
+	}
+
+	/**
+	 * 查询一个, 没有时结果为null
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<T> findOne(String dbName, final Class<?> clazz, Bson filter) {
+		final SettableFuture<T> future = SettableFuture.create();
+		try {
+			MongoCollection<T> coll = getCollection(dbName, clazz);
+			FindIterable<T> findIterable = coll.find(filter);
+			long maxTimeMS = MongoDBUtil.getMaxTimeMS(clazz);
+			if (maxTimeMS > 0) {
+				findIterable.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+			}
+			findIterable.first(new SingleResultCallback<T>() {
+				@Override
+				public void onResult(T result, Throwable t) {
+					complete(future, result, t, "findOne", clazz, null);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, null, e, "findOne", clazz, null);
+		}
+		return future;
+	}
+
+	/**
+	 * 按条件查询列表
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter     可以为null
+	 * @param orderBy    可以为null
+	 * @param projection 可以为null
+	 * @param skip       小于等于0时不跳过
+	 * @param limit      小于等于0时不限制
+	 * @param <T>
+	 * @return 出错时结果为null
+	 */
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<List<T>> find(String dbName, final Class<?> clazz, Bson filter, Bson orderBy, Bson projection, int skip, int limit) {
+		final SettableFuture<List<T>> future = SettableFuture.create();
+		try {
+			MongoCollection<T> coll = getCollection(dbName, clazz);
+			FindIterable<T> findIterable = filter == null ? coll.find() : coll.find(filter);
+			findIterable.sort(orderBy).projection(projection);
+			long maxTimeMS = MongoDBUtil.getMaxTimeMS(clazz);
+			if (maxTimeMS > 0) {
+				findIterable.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+			}
+			if (skip > 0) {
+				findIterable.skip(skip);
+			}
+			if (limit > 0) {
+				findIterable.limit(limit);
+			}
+			findIterable.into(new ArrayList<T>(), new SingleResultCallback<List<T>>() {
+				@Override
+				public void onResult(List<T> result, Throwable t) {
+					complete(future, result, t, "find", clazz, null);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, null, e, "find", clazz, null);
+		}
+		return future;
+	}
+
+	/**
+	 * 按id批量查询, 结果按传入id的顺序排列, 没查到的id不在map中.
+	 * id多时按MongoDBUtil.ID_CHUNK_SIZE分批同时查询
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param idKey
+	 * @param ids
+	 * @param <T>
+	 * @return 出错时结果为null
+	 */
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<Map<String, T>> findMapByIds(String dbName, final Class<?> clazz, final String idKey, Collection<String> ids) {
+		final List<String> distinctIds = new ArrayList<String>(new LinkedHashSet<String>(ids));
+		List<ListenableFuture<List<T>>> chunks = new ArrayList<ListenableFuture<List<T>>>();
+		for (List<String> chunk : Lists.partition(distinctIds, MongoDBUtil.ID_CHUNK_SIZE)) {
+			chunks.add(AsyncMongoDBUtil.<T>find(dbName, clazz, Filters.in(idKey, chunk), null, null, 0, 0));
+		}
+		return Futures.transform(Futures.allAsList(chunks), new Function<List<List<T>>, Map<String, T>>() {
+			@Override
+			public Map<String, T> apply(List<List<T>> results) {
+				Map<String, T> byId = new LinkedHashMap<String, T>();
+				for (List<T> result : results) {
+					if (result == null) {
+						return null;
+					}
+					try {
+						for (T entity : result) {
+							byId.put(String.valueOf(entity.getMongoValue(idKey)), entity);
+						}
+					} catch (RuntimeException e) {
+						// idKey不是实体的字段, 与其他方法一致正常完成, 结果为null
+						MongoDBUtil.logError("findMapByIds", clazz, e);
+						return null;
+					}
+				}
+				Map<String, T> ordered = new LinkedHashMap<String, T>();
+				for (String id : distinctIds) {
+					T entity = byId.get(id);
+					if (entity != null) {
+						ordered.put(id, entity);
+					}
+				}
+				return ordered;
+			}
+		});
+	}
+
+	/**
+	 * 统计总数
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter 可以为null
+	 * @return 出错时结果为0
+	 */
+	public static ListenableFuture<Long> count(String dbName, final Class<?> clazz, Bson filter) {
+		final SettableFuture<Long> future = SettableFuture.create();
+		try {
+			MongoCollection<Object> coll = getCollection(dbName, clazz);
+			CountOptions options = new CountOptions();
+			long maxTimeMS = MongoDBUtil.getMaxTimeMS(clazz);
+			if (maxTimeMS > 0) {
+				options.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+			}
+			coll.count(filter == null ? new Document() : filter, options, new SingleResultCallback<Long>() {
+				@Override
+				public void onResult(Long result, Throwable t) {
+					complete(future, result, t, "count", clazz, 0L);
+				}
+			});
+		} catch (Exception e) {
+			complete(future, 0L, e, "count", clazz, 0L);
+		}
+		return future;
+	}
+
+	/**
+	 * 分页查询, 列表和总数同时查询, page.count为-1时不统计总数
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param page
+	 * @param orderBy
+	 * @param filter     可以为null
+	 * @param projection 可以为null
+	 * @param <T>
+	 * @return 出错时结果为null
+	 */
+	public static <T extends BaseMongoEntity<?>> ListenableFuture<Page<T>> searchPage(String dbName, Class<?> clazz, final Page<T> page, Bson orderBy, Bson filter, Bson projection) {
+		final ListenableFuture<Long> count = page.isNotCount() ? null : count(dbName, clazz, filter);
+		ListenableFuture<List<T>> list = find(dbName, clazz, filter, orderBy, projection,
+				(page.getPageNo() - 1) * page.getPageSize(), page.getPageSize());
+		return Futures.transform(list, new AsyncFunction<List<T>, Page<T>>() {
+			@Override
+			public ListenableFuture<Page<T>> apply(List<T> result) {
+				if (result == null) {
+					return Futures.immediateFuture(null);
+				}
+				page.setList(result);
+				if (count == null) {
+					return Futures.immediateFuture(page);
+				}
+				return Futures.transform(count, new Function<Long, Page<T>>() {
+					@Override
+					public Page<T> apply(Long total) {
+						page.setCount(total);
+						return page;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * 关闭异步客户端
+	 */
+	public static void close() {
+		entityCollections.clear();
+		if (mongoClient != null) {
+			mongoClient.close();
+			mongoClient = null;
+		}
+	}
+
+	private static <V> void complete(SettableFuture<V> future, V result, Throwable t, String operation, Class<?> clazz, V onError) {
+		if (t == null) {
+			future.set(result);
+		} else {
+			MongoDBUtil.logError(operation, clazz, t);
+			future.set(onError);
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (!Boolean.parseBoolean(env.getProperty("mongos.async"))) {
+			return;
+		}
+		logger.warn("=================初始化异步mongodb客户端=============================");
+
+		String hostandport = env.getProperty("mongos.host");
+		String maxConns = env.getProperty("mongos.maxConns");
+		String connectTimeoutStr = env.getProperty("mongos.connectTimeout");
+		String maxWaitTimeStr = env.getProperty("mongos.maxWaitTime");
+		String socketTimeoutStr = env.getProperty("mongos.socketTimeout");
+		String threadNumberStr = env.getProperty("mongos.threadNumber");
+		String metricsStr = env.getProperty("mongos.metrics");
+		String slowQueryMillisStr = env.getProperty("mongos.slowQueryMillis");
+
+		int connectionsPerHost = 150; //默认值
+		int connectTimeout = 15000;
+		int maxWaitTime = 5000;
+		int socketTimeout = 0;
+		// 异步驱动不阻塞线程, 等待队列不需要按线程数放大
+		int maxWaitQueueSize = 500;
+		long slowQueryMillis = 500;
+
+		if(StringUtils.isNotBlank(maxConns)){
+			connectionsPerHost = Integer.parseInt(maxConns);
+		}
+		if(StringUtils.isNotBlank(connectTimeoutStr)){
+			connectTimeout = Integer.parseInt(connectTimeoutStr);
+		}
+		if(StringUtils.isNotBlank(maxWaitTimeStr)){
+			maxWaitTime = Integer.parseInt(maxWaitTimeStr);
+		}
+		if(StringUtils.isNotBlank(socketTimeoutStr)){
+			socketTimeout = Integer.parseInt(socketTimeoutStr);
+		}
+		if(StringUtils.isNotBlank(threadNumberStr)){
+			maxWaitQueueSize = Math.min(connectionsPerHost * Integer.parseInt(threadNumberStr), maxWaitQueueSize * 10);
+		}
+		if(StringUtils.isNotBlank(slowQueryMillisStr)){
+			slowQueryMillis = Long.parseLong(slowQueryMillisStr);
+		}
+
+		List<ServerAddress> sdList = new ArrayList<ServerAddress>();
+		for (String item : hostandport.split(",")) {
+			String host = item.split(":")[0].trim();
+			int port = Integer.valueOf(item.split(":")[1].trim());
+			sdList.add(new ServerAddress(host, port));
+		}
+		MongoClientSettings.Builder settings = MongoClientSettings.builder()
+				.clusterSettings(ClusterSettings.builder().hosts(sdList).build())
+				.connectionPoolSettings(ConnectionPoolSettings.builder()
+						.maxSize(connectionsPerHost)
+						.maxWaitQueueSize(maxWaitQueueSize)
+						.maxWaitTime(maxWaitTime, TimeUnit.MILLISECONDS)
+						.build())
+				.socketSettings(SocketSettings.builder()
+						.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+						.readTimeout(socketTimeout, TimeUnit.MILLISECONDS)
+						.build())
+				.codecRegistry(MongoDBUtil.createCodecRegistry());
+		if (!"false".equalsIgnoreCase(metricsStr)) {
+			settings.addCommandListener(new MongoMetricsListener(slowQueryMillis));
+		}
+		mongoClient = MongoClients.create(settings.build());
+	}
+}
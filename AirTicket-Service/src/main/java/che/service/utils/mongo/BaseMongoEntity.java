@@ -1,11 +1,10 @@
 package che.service.utils.mongo;
 
-import che.service.utils.reflection.Reflections;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
 
 /**
  * <p>
@@ -21,65 +20,116 @@ public abstract class BaseMongoEntity<T> implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * 从mongo读取时的_id, 只在键集分页等内部场景使用, 不参与toDocument和序列化
+     */
+    private transient Object mongoId;
+
+    /**
+     * 开始跟踪时(有@MongoTrackChanges的实体从mongo读取时, 或调用resetChanges时)各字段的值,
+     * 用于只更新修改过的字段, 见toUpdateDocument. 没有跟踪时为null
+     */
+    private transient Object[] loadedValues;
+
+    /**
+     * 延迟批量插入时预先分配的_id, 见MongoWriteBehindBuffer. 重试时同一条记录使用同一个_id,
+     * 上次已经写入的记录会因_id重复被跳过, 不会重复插入
+     */
+    private transient ObjectId insertId;
+
     /**
      * Document转实体
+     * 2017年9月19日09:29:58 如果mongo中有,但是实体还未更新,会找不到setter方法 继续执行
      *
      * @return
      */
     @SuppressWarnings("unchecked")
     public T toEntity(Document document) {
+        converter().populate(this, document);
+        onLoaded();
+        return (T) this;
+    }
 
-        for (String key : document.keySet()) {
-            if (key.equals("_id")) {
-                continue;
-            }
-            Object object = document.get(key);
-            if (object != null) {
-                //2017年9月19日09:29:58 加上异常处理 如果反射出错(mongo中有,但是实体还未更新,会找不到setter方法) 继续执行
-                try {
-                    Reflections.invokeSetter(this, key, object);
-                } catch (Exception e) {
-                }
-            }
+    /**
+     * 实体转document
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Document toDocument() {
+        return converter().toDocument(this);
+    }
+
+    /**
+     * 生成只包含修改过字段的更新文档, 修改的字段用$set, 改为null的用$unset, 嵌套文档按路径比较.
+     * 没有跟踪的实体(新建的实体, 或没有@MongoTrackChanges且没有调用resetChanges的实体)$set所有不为null的字段
+     *
+     * @return 没有修改时返回空Document
+     */
+    @SuppressWarnings("unchecked")
+    public Document toUpdateDocument() {
+        return converter().changes(this, loadedValues);
+    }
 
+    /**
+     * 以当前值作为比较基准开始跟踪, 更新成功后调用; 没有@MongoTrackChanges的实体在修改前调用
+     */
+    @SuppressWarnings("unchecked")
+    public void resetChanges() {
+        loadedValues = converter().snapshot(this);
+    }
 
+    /**
+     * 从mongo或缓存读取后调用, 只有@MongoTrackChanges的实体记录字段值
+     */
+    void onLoaded() {
+        if (MongoEntityMetadata.forClass(getClass()).isTrackChanges()) {
+            resetChanges();
+        } else {
+            loadedValues = null;
         }
-        return (T) this;
     }
 
     /**
-     * 实体转document
+     * 当前实体类的转换器, 字段映射只在第一次使用时解析
      *
      * @return
      */
-    public Document toDocument() {
+    @SuppressWarnings("rawtypes")
+    private EntityConverter converter() {
+        return EntityConverter.forClass(getClass());
+    }
 
-        Document document = new Document();
-
-        // 获取类中的所有定义字段
-        Field[] fields = this.getClass().getDeclaredFields();
-
-        // 循环遍历字段，获取字段对应的属性值
-        for (Field field : fields) {
-
-            try {
-                field.setAccessible(true);
-                String fieldName = field.getName();
-                String newFieldName = fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
-                Object value = field.get(this);
-                if (value == null) {
-                    // value="";
-                    continue;
-                }
-                if (!fieldName.equals("serialVersionUID")) {
-                    document.put(newFieldName, value);
-                }
-
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
+    Object getMongoId() {
+        return mongoId;
+    }
+
+    void setMongoId(Object mongoId) {
+        this.mongoId = mongoId;
+    }
+
+    ObjectId getInsertId() {
+        return insertId;
+    }
+
+    /**
+     * 没有分配过_id时分配一个
+     */
+    void assignInsertId() {
+        if (insertId == null) {
+            insertId = new ObjectId();
         }
-        return document;
+    }
+
+    /**
+     * 按文档字段名读取本类字段的值
+     *
+     * @param documentKey
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Object getMongoValue(String documentKey) {
+        return converter().getValue(this, documentKey);
     }
 
     @Override
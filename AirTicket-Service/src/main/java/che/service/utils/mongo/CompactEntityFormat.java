@@ -0,0 +1,338 @@
+package che.service.utils.mongo;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Description: 实体的紧凑二进制格式, 供EntityRedisSerializer和PageRedisSerializer使用.
+ * 本类及父类(到BaseMongoEntity为止)的字段按EntityConverter的字段顺序依次写入, 不写字段名, 每个值一个字节的类型标记,
+ * 整数用zigzag变长编码.
+ * 开头是字段名和字段类型的指纹, 实体类字段变化后旧数据读出为null(视为缓存未命中), 不会错位.
+ * 支持的类型与实体字段的常用类型一致: String, Integer, Long, Double, Float, Boolean, Date, ObjectId,
+ * BigDecimal, byte[], List/Set, Map/Document(读出为Document, 与EntityCodec一致)
+ * <p>
+ * 只用于短期缓存, 不用于持久化
+ *
+ * @param <T>
+ */
+final class CompactEntityFormat<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte DATE = 8;
+    private static final byte OBJECT_ID = 9;
+    private static final byte DECIMAL = 10;
+    private static final byte BYTES = 11;
+    private static final byte LIST = 12;
+    private static final byte DOCUMENT = 13;
+
+    private final EntityConverter<T> converter;
+
+    private final int fingerprint;
+
+    CompactEntityFormat(Class<T> entityClass) {
+        this.converter = EntityConverter.forClass(entityClass);
+        int hash = entityClass.getName().hashCode();
+        for (int i = 0, size = converter.hierarchyCount(); i < size; i++) {
+            hash = 31 * hash + converter.hierarchyKey(i).hashCode();
+            hash = 31 * hash + converter.hierarchyType(i).getName().hashCode();
+        }
+        this.fingerprint = hash;
+    }
+
+    Class<T> getEntityClass() {
+        return converter.getEntityClass();
+    }
+
+    void writeEntity(Output out, T entity) {
+        out.writeInt32(fingerprint);
+        writeValue(out, ((BaseMongoEntity<?>) entity).getMongoId());
+        for (int i = 0, size = converter.hierarchyCount(); i < size; i++) {
+            writeValue(out, converter.hierarchyValue(entity, i));
+        }
+    }
+
+    /**
+     * @return 指纹不一致(实体类字段已变化)时返回null
+     */
+    T readEntity(Input in) {
+        if (in.readInt32() != fingerprint) {
+            return null;
+        }
+        T entity = converter.newInstance();
+        ((BaseMongoEntity<?>) entity).setMongoId(readValue(in));
+        for (int i = 0, size = converter.hierarchyCount(); i < size; i++) {
+            Object value = readValue(in);
+            if (value != null) {
+                converter.setHierarchyValue(entity, i, adapt(value, converter.hierarchyType(i)));
+            }
+        }
+        ((BaseMongoEntity<?>) entity).onLoaded();
+        return entity;
+    }
+
+    static void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeVarLong((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeInt64(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeInt32(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeVarLong(((Date) value).getTime());
+        } else if (value instanceof ObjectId) {
+            out.writeByte(OBJECT_ID);
+            out.writeBytes(((ObjectId) value).toByteArray());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof byte[] || value instanceof Binary) {
+            byte[] bytes = value instanceof Binary ? ((Binary) value).getData() : (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        } else if (value instanceof Collection) {
+            out.writeByte(LIST);
+            out.writeVarLong(((Collection<?>) value).size());
+            for (Object item : (Collection<?>) value) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Map) {
+            out.writeByte(DOCUMENT);
+            out.writeVarLong(((Map<?, ?>) value).size());
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                out.writeString(entry.getKey().toString());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported type " + value.getClass().getName());
+        }
+    }
+
+    static Object readValue(Input in) {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readString();
+            case INT:
+                return (int) in.readVarLong();
+            case LONG:
+                return in.readVarLong();
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readInt64());
+            case FLOAT:
+                return Float.intBitsToFloat(in.readInt32());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DATE:
+                return new Date(in.readVarLong());
+            case OBJECT_ID:
+                return new ObjectId(in.readBytes(12));
+            case DECIMAL:
+                return new BigDecimal(in.readString());
+            case BYTES:
+                return in.readBytes((int) in.readVarLong());
+            case LIST: {
+                int size = (int) in.readVarLong();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case DOCUMENT: {
+                int size = (int) in.readVarLong();
+                Document document = new Document();
+                for (int i = 0; i < size; i++) {
+                    String key = in.readString();
+                    document.put(key, readValue(in));
+                }
+                return document;
+            }
+            default:
+                throw new IllegalArgumentException("unknown type " + type + " at " + (in.position - 1));
+        }
+    }
+
+    /**
+     * 集合统一读成ArrayList, 字段声明为Set时转换
+     */
+    private static Object adapt(Object value, Class<?> type) {
+        if (value instanceof List && Set.class.isAssignableFrom(type) && type.isAssignableFrom(LinkedHashSet.class)) {
+            return new LinkedHashSet<Object>((List<?>) value);
+        }
+        return value;
+    }
+
+    /**
+     * 可增长的字节缓冲区
+     */
+    static final class Output {
+
+        private byte[] buffer;
+
+        private int position;
+
+        Output(int initialSize) {
+            this.buffer = new byte[Math.max(initialSize, 16)];
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeInt32(int value) {
+            ensure(4);
+            buffer[position++] = (byte) (value >>> 24);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeInt64(long value) {
+            writeInt32((int) (value >>> 32));
+            writeInt32((int) value);
+        }
+
+        /**
+         * zigzag变长编码, 绝对值小的数只占1~2字节
+         */
+        void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[position++] = (byte) zigzag;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[position];
+            System.arraycopy(buffer, 0, bytes, 0, position);
+            return bytes;
+        }
+
+        private void ensure(int length) {
+            if (position + length > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, position + length)];
+                System.arraycopy(buffer, 0, grown, 0, position);
+                buffer = grown;
+            }
+        }
+    }
+
+    static final class Input {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            check(1);
+            return buffer[position++];
+        }
+
+        byte[] readBytes(int length) {
+            check(length);
+            byte[] bytes = new byte[length];
+            System.arraycopy(buffer, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+
+        int readInt32() {
+            check(4);
+            return ((buffer[position++] & 0xFF) << 24) | ((buffer[position++] & 0xFF) << 16)
+                    | ((buffer[position++] & 0xFF) << 8) | (buffer[position++] & 0xFF);
+        }
+
+        long readInt64() {
+            return ((long) readInt32() << 32) | (readInt32() & 0xFFFFFFFFL);
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 63) {
+                    throw new IllegalArgumentException("malformed varint at " + position);
+                }
+                byte b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            check(length);
+            String value = new String(buffer, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        private void check(int length) {
+            if (length < 0 || position + length > buffer.length) {
+                throw new IllegalArgumentException("unexpected end of data at " + position);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package che.service.utils.mongo;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Description: BaseMongoEntity子类的BSON编解码器.
+ * 读取时直接从BsonReader把字段设置到实体, 写入时直接把实体字段写到BsonWriter, 不再经过中间的Document.
+ * 字段名与值的类型与toDocument/toEntity保持一致: 嵌套文档仍解码为Document, 数组解码为List.
+ * 只有MongoWriteBehindBuffer预先分配了_id的实体才写入_id, 其他实体的_id仍由驱动生成
+ * <p>
+ *
+ * @param <T>
+ */
+public class EntityCodec<T> implements Codec<T> {
+
+    private static final BsonTypeClassMap BSON_TYPE_CLASS_MAP = new BsonTypeClassMap();
+
+    private final EntityConverter<T> converter;
+
+    private final CodecRegistry registry;
+
+    /**
+     * 统计解码字节数用的collection名
+     */
+    private final String collection;
+
+    public EntityCodec(EntityConverter<T> converter, CodecRegistry registry) {
+        this.converter = converter;
+        this.registry = registry;
+        this.collection = MongoDBUtil.getTableName(converter.getEntityClass());
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        if (MongoMetrics.isEnabled() && reader instanceof BsonBinaryReader) {
+            BsonBinaryReader binaryReader = (BsonBinaryReader) reader;
+            int start = binaryReader.getBsonInput().getPosition();
+            T entity = decodeEntity(reader, decoderContext);
+            MongoMetrics.recordBytesDecoded(collection, binaryReader.getBsonInput().getPosition() - start);
+            return entity;
+        }
+        return decodeEntity(reader, decoderContext);
+    }
+
+    private T decodeEntity(BsonReader reader, DecoderContext decoderContext) {
+        T entity = converter.newInstance();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+            } else if ("_id".equals(name)) {
+                ((BaseMongoEntity<?>) entity).setMongoId(readValue(reader, decoderContext));
+            } else if (!converter.hasSetter(name)) {
+                reader.skipValue();
+            } else {
+                converter.setValue(entity, name, readValue(reader, decoderContext));
+            }
+        }
+        reader.readEndDocument();
+        ((BaseMongoEntity<?>) entity).onLoaded();
+        return entity;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T entity, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        ObjectId insertId = ((BaseMongoEntity<?>) entity).getInsertId();
+        if (insertId != null) {
+            writer.writeObjectId("_id", insertId);
+        }
+        for (int i = 0, size = converter.propertyCount(); i < size; i++) {
+            Object value = converter.propertyValue(entity, i);
+            if (value != null) {
+                writer.writeName(converter.propertyKey(i));
+                writeValue(writer, encoderContext, value);
+            }
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return converter.getEntityClass();
+    }
+
+    private Object readValue(BsonReader reader, DecoderContext decoderContext) {
+        BsonType bsonType = reader.getCurrentBsonType();
+        if (bsonType == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        if (bsonType == BsonType.ARRAY) {
+            List<Object> list = new ArrayList<Object>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                list.add(readValue(reader, decoderContext));
+            }
+            reader.readEndArray();
+            return list;
+        }
+        if (bsonType == BsonType.BINARY && reader.peekBinarySize() == 16) {
+            byte subType = reader.peekBinarySubType();
+            if (subType == 3 || subType == 4) {
+                return registry.get(UUID.class).decode(reader, decoderContext);
+            }
+        }
+        return registry.get(BSON_TYPE_CLASS_MAP.get(bsonType)).decode(reader, decoderContext);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void writeValue(BsonWriter writer, EncoderContext encoderContext, Object value) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof Iterable) {
+            writer.writeStartArray();
+            for (Object item : (Iterable<?>) value) {
+                writeValue(writer, encoderContext, item);
+            }
+            writer.writeEndArray();
+        } else if (value instanceof Map) {
+            writer.writeStartDocument();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeName(entry.getKey().toString());
+                writeValue(writer, encoderContext, entry.getValue());
+            }
+            writer.writeEndDocument();
+        } else {
+            Codec codec = registry.get(value.getClass());
+            encoderContext.encodeWithChildContext(codec, writer, value);
+        }
+    }
+}
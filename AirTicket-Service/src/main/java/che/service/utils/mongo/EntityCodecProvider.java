@@ -0,0 +1,23 @@
+package che.service.utils.mongo;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * <p>
+ * Description: 为BaseMongoEntity子类提供EntityCodec, 注册在MongoDBUtil的MongoClient上
+ * <p>
+ */
+public class EntityCodecProvider implements CodecProvider {
+
+    @Override
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (BaseMongoEntity.class.isAssignableFrom(clazz) && !Modifier.isAbstract(clazz.getModifiers())) {
+            return new EntityCodec<T>(EntityConverter.forClass(clazz), registry);
+        }
+        return null;
+    }
+}
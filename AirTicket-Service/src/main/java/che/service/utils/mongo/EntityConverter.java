@@ -0,0 +1,547 @@
+package che.service.utils.mongo;
+
+import che.service.utils.reflection.Reflections;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Description: 实体与Document互转的预编译映射.
+ * 每个实体类只解析一次字段、文档字段名与setter并缓存, toDocument/toEntity不再每次反射查找
+ * <p>
+ *
+ * @param <T>
+ */
+public final class EntityConverter<T> {
+
+    private static final ConcurrentMap<Class<?>, EntityConverter<?>> CONVERTERS = new ConcurrentHashMap<Class<?>, EntityConverter<?>>();
+
+    /**
+     * 找不到setter时的占位, 避免重复查找
+     */
+    private static final Property NONE = new Property(null, null, null);
+
+    /**
+     * 容器类型 -> 是否可以用公开的无参构造函数创建, 见copyOf
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> CONSTRUCTIBLE_CONTAINERS = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final Class<T> entityClass;
+
+    /**
+     * 实体本类声明的字段, 按声明顺序, toDocument使用
+     */
+    private final Property[] properties;
+
+    /**
+     * 文档字段名(首字母大写) -> 属性
+     */
+    private final Map<String, Property> propertiesByKey;
+
+    /**
+     * 本类及父类(到BaseMongoEntity为止)的字段, 子类优先, 不含static和transient字段
+     */
+    private final Property[] hierarchyProperties;
+
+    /**
+     * 文档字段名(首字母大写) -> 本类及父类的属性
+     */
+    private final Map<String, Property> hierarchyPropertiesByKey;
+
+    /**
+     * 方法名 -> 方法, 子类优先, 同名只取第一个, 与Reflections.invokeSetter的匹配规则一致
+     */
+    private final Map<String, Method> methodsByName;
+
+    /**
+     * 文档中出现过的key -> setter, 包括找不到setter的key
+     */
+    private final ConcurrentMap<String, Property> settersByDocumentKey = new ConcurrentHashMap<String, Property>();
+
+    private EntityConverter(Class<T> entityClass) {
+        this.entityClass = entityClass;
+
+        Map<String, Method> methods = new HashMap<String, Method>();
+        for (Class<?> searchType = entityClass; searchType != Object.class; searchType = searchType.getSuperclass()) {
+            for (Method method : searchType.getDeclaredMethods()) {
+                if (!methods.containsKey(method.getName())) {
+                    methods.put(method.getName(), method);
+                }
+            }
+        }
+        this.methodsByName = methods;
+
+        List<Property> list = new ArrayList<Property>();
+        Map<String, Property> byKey = new LinkedHashMap<String, Property>();
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Reflections.makeAccessible(field);
+            String key = StringUtils.capitalize(field.getName());
+            Property property = new Property(key, field, null);
+            list.add(property);
+            byKey.put(key, property);
+        }
+        this.properties = list.toArray(new Property[list.size()]);
+        this.propertiesByKey = Collections.unmodifiableMap(byKey);
+
+        List<Property> hierarchy = new ArrayList<Property>(list);
+        Map<String, Property> hierarchyByKey = new LinkedHashMap<String, Property>(byKey);
+        for (Class<?> searchType = entityClass.getSuperclass(); searchType != null && searchType != Object.class
+                && searchType != BaseMongoEntity.class; searchType = searchType.getSuperclass()) {
+            for (Field field : searchType.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                String key = StringUtils.capitalize(field.getName());
+                if (hierarchyByKey.containsKey(key)) {
+                    continue;
+                }
+                Reflections.makeAccessible(field);
+                Property property = new Property(key, field, null);
+                hierarchy.add(property);
+                hierarchyByKey.put(key, property);
+            }
+        }
+        this.hierarchyProperties = hierarchy.toArray(new Property[hierarchy.size()]);
+        this.hierarchyPropertiesByKey = Collections.unmodifiableMap(hierarchyByKey);
+    }
+
+    /**
+     * 获取实体类对应的转换器, 每个类只构建一次
+     *
+     * @param entityClass
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityConverter<T> forClass(Class<T> entityClass) {
+        EntityConverter<?> converter = CONVERTERS.get(entityClass);
+        if (converter == null) {
+            converter = new EntityConverter<T>(entityClass);
+            EntityConverter<?> exists = CONVERTERS.putIfAbsent(entityClass, converter);
+            if (exists != null) {
+                converter = exists;
+            }
+        }
+        return (EntityConverter<T>) converter;
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * 实体本类字段对应的文档字段名, 按声明顺序
+     *
+     * @return
+     */
+    public Set<String> getKeys() {
+        return propertiesByKey.keySet();
+    }
+
+    /**
+     * 创建一个新实体
+     *
+     * @return
+     */
+    public T newInstance() {
+        try {
+            return entityClass.newInstance();
+        } catch (Exception e) {
+            throw Reflections.convertReflectionExceptionToUnchecked(e);
+        }
+    }
+
+    /**
+     * 实体转document, 跳过值为null的字段
+     *
+     * @param entity
+     * @return
+     */
+    public Document toDocument(T entity) {
+        Document document = new Document();
+        for (Property property : properties) {
+            Object value = property.get(entity);
+            if (value != null) {
+                document.put(property.key, value);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * 把document中的值通过setter设置到实体中, 跳过_id和null值,
+     * mongo中有但实体中没有setter的字段直接忽略
+     *
+     * @param entity
+     * @param document
+     * @return
+     */
+    public T populate(T entity, Document document) {
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null || "_id".equals(entry.getKey())) {
+                continue;
+            }
+            setValue(entity, entry.getKey(), value);
+        }
+        return entity;
+    }
+
+    /**
+     * 按文档字段名调用setter, 找不到setter或设置失败时返回false
+     *
+     * @param entity
+     * @param documentKey
+     * @param value
+     * @return
+     */
+    public boolean setValue(T entity, String documentKey, Object value) {
+        Property setter = setterFor(documentKey);
+        if (setter == NONE) {
+            return false;
+        }
+        try {
+            setter.setter.invoke(entity, value);
+            return true;
+        } catch (Exception e) {
+            //mongo中的类型与实体不一致时 继续执行
+            return false;
+        }
+    }
+
+    /**
+     * 实体中是否有该文档字段对应的setter
+     *
+     * @param documentKey
+     * @return
+     */
+    public boolean hasSetter(String documentKey) {
+        return setterFor(documentKey) != NONE;
+    }
+
+    /**
+     * 实体本类或父类中是否有该文档字段对应的字段
+     *
+     * @param documentKey
+     * @return
+     */
+    public boolean hasProperty(String documentKey) {
+        return hierarchyPropertiesByKey.containsKey(documentKey);
+    }
+
+    /**
+     * 按文档字段名读取实体字段的值, 包括父类中声明的字段(如父类的Id)
+     *
+     * @param entity
+     * @param documentKey
+     * @return
+     */
+    public Object getValue(T entity, String documentKey) {
+        Property property = hierarchyPropertiesByKey.get(documentKey);
+        if (property == null) {
+            throw new IllegalArgumentException("Could not find property [" + documentKey + "] on " + entityClass.getName());
+        }
+        return property.get(entity);
+    }
+
+    /**
+     * 复制实体本类及父类(到BaseMongoEntity为止)的字段, 嵌套文档、数组等可变值也会复制,
+     * 用于查询缓存返回互不影响的实体. _id由调用方设置
+     *
+     * @param entity
+     * @return
+     */
+    public T copy(T entity) {
+        T copy = newInstance();
+        for (Property property : hierarchyProperties) {
+            Object value = property.get(entity);
+            Object copied = copyOf(value);
+            // 按接口复制出的容器与字段类型不兼容时(如字段声明为具体的不可变类型), 使用原值
+            property.set(copy, copied == null || property.field.getType().isInstance(copied) ? copied : value);
+        }
+        return copy;
+    }
+
+    /**
+     * 记录实体本类字段的当前值, 作为changes的比较基准. 嵌套文档、数组、Date等可变值会复制一份,
+     * 原地修改也能检测到; 复制时保持集合类型, Set字段与当前值按Set比较, 没有修改时不会误判为修改
+     *
+     * @param entity
+     * @return
+     */
+    Object[] snapshot(T entity) {
+        Object[] values = new Object[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            values[i] = copyOf(properties[i].get(entity));
+        }
+        return values;
+    }
+
+    /**
+     * 与snapshot比较生成更新文档, 只包含修改过的字段: 新值用$set, 变为null或被删除的用$unset,
+     * 新旧值都是嵌套文档时逐层比较, 生成 Field.Sub 形式的路径. snapshot为null(不是从mongo读取的实体)时
+     * $set所有不为null的字段, 与toDocument一致
+     *
+     * @param entity
+     * @param snapshot
+     * @return 没有修改时返回空Document
+     */
+    public Document changes(T entity, Object[] snapshot) {
+        Document set = new Document();
+        Document unset = new Document();
+        for (int i = 0; i < properties.length; i++) {
+            Object value = properties[i].get(entity);
+            if (snapshot == null) {
+                if (value != null) {
+                    set.put(properties[i].key, value);
+                }
+            } else {
+                diff(properties[i].key, snapshot[i], value, set, unset);
+            }
+        }
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if (!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return update;
+    }
+
+    private static void diff(String path, Object oldValue, Object newValue, Document set, Document unset) {
+        if (newValue == null) {
+            if (oldValue != null) {
+                unset.put(path, "");
+            }
+        } else if (oldValue instanceof Map && newValue instanceof Map) {
+            Map<?, ?> oldMap = (Map<?, ?>) oldValue;
+            Map<?, ?> newMap = (Map<?, ?>) newValue;
+            for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+                diff(path + "." + entry.getKey(), oldMap.get(entry.getKey()), entry.getValue(), set, unset);
+            }
+            for (Object key : oldMap.keySet()) {
+                if (!newMap.containsKey(key) && oldMap.get(key) != null) {
+                    unset.put(path + "." + key, "");
+                }
+            }
+        } else if (!Objects.deepEquals(oldValue, newValue)) {
+            set.put(path, newValue);
+        }
+    }
+
+    /**
+     * 复制可变值. Map和Collection保持原来的类型(如Set、TreeMap), 没有公开无参构造函数的类型
+     * 按接口复制为LinkedHashMap/TreeMap/LinkedHashSet/TreeSet/ArrayList
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyOf(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = newMap((Map<Object, Object>) value);
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copyOf(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof Collection) {
+            Collection<Object> copy = newCollection((Collection<Object>) value);
+            for (Object item : (Collection<?>) value) {
+                copy.add(copyOf(item));
+            }
+            return copy;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        }
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<Object, Object> newMap(Map<Object, Object> value) {
+        Comparator comparator = value instanceof SortedMap ? ((SortedMap) value).comparator() : null;
+        if (comparator == null) {
+            Object copy = newContainer(value.getClass());
+            if (copy != null) {
+                return (Map<Object, Object>) copy;
+            }
+        }
+        if (value instanceof SortedMap) {
+            return new TreeMap<Object, Object>(comparator);
+        }
+        return new LinkedHashMap<Object, Object>();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Collection<Object> newCollection(Collection<Object> value) {
+        Comparator comparator = value instanceof SortedSet ? ((SortedSet) value).comparator() : null;
+        if (comparator == null) {
+            Object copy = newContainer(value.getClass());
+            if (copy != null) {
+                return (Collection<Object>) copy;
+            }
+        }
+        if (value instanceof SortedSet) {
+            return new TreeSet<Object>(comparator);
+        }
+        if (value instanceof Set) {
+            return new LinkedHashSet<Object>();
+        }
+        return new ArrayList<Object>();
+    }
+
+    /**
+     * 用公开的无参构造函数创建同类型的空容器, 不可用时(如Collections.unmodifiableList、Arrays.asList)返回null
+     */
+    private static Object newContainer(Class<?> type) {
+        Boolean constructible = CONSTRUCTIBLE_CONTAINERS.get(type);
+        if (constructible == null) {
+            constructible = Boolean.FALSE;
+            if (Modifier.isPublic(type.getModifiers()) && !Modifier.isAbstract(type.getModifiers())) {
+                try {
+                    constructible = Modifier.isPublic(type.getConstructor().getModifiers());
+                } catch (NoSuchMethodException e) {
+                    // 没有无参构造函数
+                }
+            }
+            CONSTRUCTIBLE_CONTAINERS.put(type, constructible);
+        }
+        if (!constructible) {
+            return null;
+        }
+        try {
+            return type.newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 实体本类字段个数, 与propertyKey/propertyValue配合按下标遍历, 供EntityCodec直接写BsonWriter
+     *
+     * @return
+     */
+    int propertyCount() {
+        return properties.length;
+    }
+
+    String propertyKey(int index) {
+        return properties[index].key;
+    }
+
+    Object propertyValue(T entity, int index) {
+        return properties[index].get(entity);
+    }
+
+    /**
+     * 本类及父类(到BaseMongoEntity为止)字段个数, 与hierarchyKey等配合按下标遍历, 供CompactEntityFormat使用.
+     * 顺序为本类字段在前, 然后逐级是父类字段
+     *
+     * @return
+     */
+    int hierarchyCount() {
+        return hierarchyProperties.length;
+    }
+
+    String hierarchyKey(int index) {
+        return hierarchyProperties[index].key;
+    }
+
+    Object hierarchyValue(T entity, int index) {
+        return hierarchyProperties[index].get(entity);
+    }
+
+    Class<?> hierarchyType(int index) {
+        return hierarchyProperties[index].field.getType();
+    }
+
+    /**
+     * 直接设置字段, 不经过setter, 供CompactEntityFormat按下标还原实体
+     */
+    void setHierarchyValue(T entity, int index, Object value) {
+        hierarchyProperties[index].set(entity, value);
+    }
+
+    private Property setterFor(String documentKey) {
+        Property setter = settersByDocumentKey.get(documentKey);
+        if (setter == null) {
+            Method method = findSetter(StringUtils.capitalize(documentKey));
+            setter = method == null ? NONE : new Property(documentKey, null, method);
+            Property exists = settersByDocumentKey.putIfAbsent(documentKey, setter);
+            if (exists != null) {
+                setter = exists;
+            }
+        }
+        return setter;
+    }
+
+    private Method findSetter(String capitalizedKey) {
+        Method method = methodsByName.get("set" + capitalizedKey);
+        if (method != null) {
+            Reflections.makeAccessible(method);
+        }
+        return method;
+    }
+
+    private static final class Property {
+
+        private final String key;
+
+        private final Field field;
+
+        private final Method setter;
+
+        private Property(String key, Field field, Method setter) {
+            this.key = key;
+            this.field = field;
+            this.setter = setter;
+        }
+
+        private Object get(Object entity) {
+            try {
+                return field.get(entity);
+            } catch (IllegalAccessException e) {
+                throw Reflections.convertReflectionExceptionToUnchecked(e);
+            }
+        }
+
+        private void set(Object entity, Object value) {
+            try {
+                field.set(entity, value);
+            } catch (IllegalAccessException e) {
+                throw Reflections.convertReflectionExceptionToUnchecked(e);
+            }
+        }
+    }
+}
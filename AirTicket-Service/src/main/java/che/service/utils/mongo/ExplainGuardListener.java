@@ -0,0 +1,118 @@
+package che.service.utils.mongo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * Description: 开发环境的索引检查. 每种查询形状第一次执行find时, 在后台对它执行explain,
+ * 执行计划中有COLLSCAN(全表扫描)时打警告日志. 通过mongos.explainGuard=true开启, 生产环境不要开启
+ * <p>
+ */
+public class ExplainGuardListener implements CommandListener {
+
+    private static Logger logger = LoggerFactory.getLogger(ExplainGuardListener.class);
+
+    /**
+     * 已检查过的查询形状
+     */
+    private final Cache<String, Boolean> checked = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (!"find".equals(event.getCommandName())) {
+            return;
+        }
+        BsonDocument command = event.getCommand();
+        final String databaseName = event.getDatabaseName();
+        final String collectionName = command.getString("find").getValue();
+        BsonDocument filter = command.containsKey("filter") ? command.getDocument("filter") : new BsonDocument();
+        BsonDocument sort = command.containsKey("sort") ? command.getDocument("sort") : null;
+
+        final String shape = databaseName + "." + collectionName + " " + MongoQueryShape.of(filter)
+                + (sort == null ? "" : " sort " + sort.toJson());
+        if (checked.asMap().putIfAbsent(shape, Boolean.TRUE) != null) {
+            return;
+        }
+        ExecutorService executor = MongoDBUtil.getQueryExecutor();
+        if (executor == null) {
+            return;
+        }
+        // 驱动只保证commandStarted期间命令文档可用, 交给后台线程前复制一份
+        final BsonDocument filterCopy = filter.clone();
+        final BsonDocument sortCopy = sort == null ? null : sort.clone();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    explain(databaseName, collectionName, filterCopy, sortCopy, shape);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            checked.invalidate(shape);
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+    }
+
+    private void explain(String databaseName, String collectionName, BsonDocument filter, BsonDocument sort, String shape) {
+        try {
+            Document find = new Document("find", collectionName).append("filter", filter);
+            if (sort != null) {
+                find.append("sort", sort);
+            }
+            Document result = MongoDBUtil.getDB(databaseName)
+                    .runCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+            if (hasStage(result.get("queryPlanner"), "COLLSCAN")) {
+                logger.warn("COLLSCAN detected, consider adding @MongoIndex: {}", shape);
+            }
+        } catch (Exception e) {
+            logger.debug("explain failed: " + shape, e);
+        }
+    }
+
+    /**
+     * 在执行计划中递归查找stage, 包括分片集群各分片的计划
+     */
+    private static boolean hasStage(Object plan, String stage) {
+        if (plan instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) plan).entrySet()) {
+                if ("stage".equals(entry.getKey()) && stage.equals(entry.getValue())) {
+                    return true;
+                }
+                if (!"rejectedPlans".equals(entry.getKey()) && hasStage(entry.getValue(), stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof List) {
+            for (Object item : (List<?>) plan) {
+                if (hasStage(item, stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof BsonValue && ((BsonValue) plan).isDocument()) {
+            return hasStage(((BsonValue) plan).asDocument(), stage);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,183 @@
+package che.service.utils.mongo;
+
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bson.conversions.Bson;
+import che.service.utils.page.Page;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 异步版的IMongodbDao, 方法与IMongodbDao对应, 立即返回ListenableFuture, 基于AsyncMongoDBUtil
+ */
+public interface IMongodbAsyncDao<T extends BaseMongoEntity<?>> {
+    /**
+     * @param dbName
+     * @param entity
+     * @return
+     */
+    public ListenableFuture<Boolean> insertOne(String dbName, T entity);
+
+    /**
+     * @param dbName
+     * @param list
+     * @return
+     */
+    public ListenableFuture<Boolean> insertMany(String dbName, List<T> list);
+
+    /**
+     * @param dbName
+     * @param param
+     * @return
+     */
+    public ListenableFuture<Boolean> deleteOne(String dbName, Map<String, Object> param);
+
+    /**
+     * @param dbName
+     * @param param
+     * @return
+     */
+    public ListenableFuture<Boolean> deleteMany(String dbName, Map<String, Object> param);
+
+    /**
+     * @param dbName
+     * @param id
+     * @return
+     */
+    public ListenableFuture<T> getById(String dbName, String id);
+
+    /**
+     * @param dbName
+     * @param ids
+     * @return
+     */
+    public ListenableFuture<List<T>> findByIds(String dbName, List<String> ids);
+
+    /**
+     * @param dbName
+     * @param ids
+     * @return
+     */
+    public ListenableFuture<Map<String, T>> getByIds(String dbName, List<String> ids);
+
+    /**
+     * @param dbName
+     * @param param
+     * @return
+     */
+    public ListenableFuture<List<T>> findByMap(String dbName, Map<String, Object> param);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson, Bson orderBy);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @param projection
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson, Bson orderBy, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @param projection
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @return
+     */
+    public ListenableFuture<List<T>> findByFilterLimitOne(String dbName, List<Bson> listBson, Bson orderBy);
+
+    /**
+     * @param dbName
+     * @param entity
+     * @return
+     */
+    public ListenableFuture<List<T>> findByEntity(String dbName, T entity);
+
+    /**
+     * @param dbName
+     * @param param
+     * @param page
+     * @return
+     */
+    public ListenableFuture<Page<T>> searchByMap(String dbName, Map<String, Object> param, Page<T> page);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     */
+    public ListenableFuture<Page<T>> searchByFilter(String dbName, List<Bson> listBson, Page<T> page);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     */
+    public ListenableFuture<Page<T>> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection
+     * @return
+     */
+    public ListenableFuture<Page<T>> searchByFilter(String dbName, List<Bson> listBson, Page<T> page, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection
+     * @return
+     */
+    public ListenableFuture<Page<T>> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page, Bson projection);
+
+    /**
+     * 在当前线程内覆盖本次调用的读写选项, 用try-with-resources关闭
+     *
+     * @param options
+     * @return
+     */
+    public MongoOptionsScope withOptions(MongoOperationOptions options);
+}
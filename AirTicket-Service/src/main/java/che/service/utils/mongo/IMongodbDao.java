@@ -1,8 +1,10 @@
 package che.service.utils.mongo;
 
 
+import com.mongodb.Block;
+import com.mongodb.client.MongoCursor;
 import org.bson.conversions.Bson;
-import org.springframework.data.domain.Page;
+import che.service.utils.page.Page;
 
 import java.util.List;
 import java.util.Map;
@@ -25,6 +27,27 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
      */
     public boolean insertMany(String dbName, List<T> list);
 
+    /**
+     * @param dbName
+     * @param entity
+     * @return
+     */
+    public boolean insertBuffered(String dbName, T entity);
+
+    /**
+     * @param dbName
+     * @return
+     */
+    public MongoBulkOperation<T> bulk(String dbName);
+
+    /**
+     * @param dbName
+     * @param resultClass
+     * @param <R>
+     * @return
+     */
+    public <R> MongoAggregation<R> aggregate(String dbName, Class<R> resultClass);
+
     /**
      * @param dbName
      * @param param
@@ -43,6 +66,40 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
     @Deprecated
     public boolean updateMany(String dbName, Map<String, Object> param, T newEntity);
 
+    /**
+     * @param dbName
+     * @param param
+     * @param entity
+     * @return
+     */
+    public boolean updateChanged(String dbName, Map<String, Object> param, T entity);
+
+    /**
+     * @param dbName
+     * @param param
+     * @param entity
+     * @return
+     */
+    public boolean updateManyChanged(String dbName, Map<String, Object> param, T entity);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param update
+     * @param returnNew
+     * @return
+     */
+    public T findOneAndUpdate(String dbName, List<Bson> listBson, Bson update, boolean returnNew);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param field
+     * @param amount
+     * @return
+     */
+    public T decrementIfEnough(String dbName, List<Bson> listBson, String field, long amount);
+
     /**
      * @param dbName
      * @param param
@@ -71,6 +128,13 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
      */
     public List<T> findByIds(String dbName, List<String> ids);
 
+    /**
+     * @param dbName
+     * @param ids
+     * @return
+     */
+    public Map<String, T> getByIds(String dbName, List<String> ids);
+
     /**
      * @param dbName
      * @param param
@@ -108,6 +172,24 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
      */
     public List<T> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy);
 
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @param projection
+     * @return
+     */
+    public List<T> findByFilter(String dbName, List<Bson> listBson, Bson orderBy, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @param projection
+     * @return
+     */
+    public List<T> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy, Bson projection);
+
     /**
      * @param dbName
      * @param listBson
@@ -116,6 +198,54 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
      */
     public List<T> findByFilterLimitOne(String dbName, List<Bson> listBson, Bson orderBy);
 
+    /**
+     * @param dbName
+     * @param query
+     * @return
+     */
+    public List<T> find(String dbName, MongoQuery<T> query);
+
+    /**
+     * @param dbName
+     * @param query
+     * @return
+     */
+    public T findOne(String dbName, MongoQuery<T> query);
+
+    /**
+     * @param dbName
+     * @param query
+     * @param page
+     * @return
+     */
+    public Page<T> search(String dbName, MongoQuery<T> query, Page<T> page);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param block
+     * @return
+     */
+    public boolean forEach(String dbName, List<Bson> listBson, Block<? super T> block);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param batchSize
+     * @param block
+     * @return
+     */
+    public boolean forEach(String dbName, List<Bson> listBson, int batchSize, Block<? super T> block);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param orderBy
+     * @param batchSize
+     * @return
+     */
+    public MongoCursor<T> iterator(String dbName, List<Bson> listBson, Bson orderBy, int batchSize);
+
     /**
      * @param dbName
      * @param entity
@@ -148,4 +278,45 @@ public interface IMongodbDao<T extends BaseMongoEntity<?>> {
      */
     public Page<T> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page);
 
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection
+     * @return
+     */
+    public Page<T> searchByFilter(String dbName, List<Bson> listBson, Page<T> page, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection
+     * @return
+     */
+    public Page<T> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page, Bson projection);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     */
+    public Page<T> searchByFilterSeek(String dbName, List<Bson> listBson, Page<T> page);
+
+    /**
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     */
+    public Page<T> searchByFilterOrSeek(String dbName, List<Bson> listBson, Page<T> page);
+
+    /**
+     * 在当前线程内覆盖本次调用的读写选项, 用try-with-resources关闭
+     *
+     * @param options
+     * @return
+     */
+    public MongoOptionsScope withOptions(MongoOperationOptions options);
 }
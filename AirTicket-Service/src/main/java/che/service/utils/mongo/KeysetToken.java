@@ -0,0 +1,123 @@
+package che.service.utils.mongo;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * <p>
+ * Description: 键集(seek)分页的续页标记.
+ * 记录排序字段、排序方向, 以及上一页最后一条记录的排序字段值和_id, 下一页直接从该位置往后查, 不再skip前面的记录.
+ * 标记是Extended JSON再做URL安全的Base64, 日期、ObjectId等类型可以原样还原.
+ * 排序字段或方向与标记中的不一致时拒绝使用, 避免用一种排序的标记查另一种排序
+ * <p>
+ * mongo排序时null(包括字段不存在)小于所有值: 正序时排在最前, 倒序时排在最后, toFilter按同样的规则续页
+ */
+public final class KeysetToken {
+
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    private static final String KEY = "k";
+
+    private static final String RULE = "r";
+
+    private static final String VALUE = "v";
+
+    private static final String ID = "i";
+
+    private final String orderKey;
+
+    private final int rule;
+
+    private final Object value;
+
+    private final Object id;
+
+    /**
+     * @param orderKey 排序字段
+     * @param rule     1正序 -1倒序
+     * @param value    上一页最后一条记录的排序字段值, 可以为null
+     * @param id       上一页最后一条记录的_id
+     */
+    public KeysetToken(String orderKey, int rule, Object value, Object id) {
+        this.orderKey = orderKey;
+        this.rule = rule >= 0 ? 1 : -1;
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * 解析续页标记, 格式不对时抛出IllegalArgumentException
+     *
+     * @param token
+     * @return
+     */
+    public static KeysetToken parse(String token) {
+        try {
+            Document document = Document.parse(new String(ENCODING.decode(token), Charsets.UTF_8));
+            if (!document.containsKey(ID) || !(document.get(KEY) instanceof String) || !(document.get(RULE) instanceof Integer)) {
+                throw new IllegalArgumentException("Invalid keyset token [" + token + "]");
+            }
+            return new KeysetToken(document.getString(KEY), document.getInteger(RULE), document.get(VALUE), document.get(ID));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid keyset token [" + token + "]", e);
+        }
+    }
+
+    /**
+     * 排在该位置之后的记录的条件, 排序字段相同时按_id排序.
+     * 排序字段或方向与生成标记时不一致时抛出IllegalArgumentException
+     *
+     * @param orderKey 排序字段
+     * @param rule     1正序 -1倒序
+     * @return
+     */
+    public Bson toFilter(String orderKey, int rule) {
+        boolean asc = rule >= 0;
+        if (!this.orderKey.equals(orderKey) || (this.rule > 0) != asc) {
+            throw new IllegalArgumentException("Keyset token was created for sort " + this.orderKey + " " + this.rule
+                    + ", not " + orderKey + " " + (asc ? 1 : -1));
+        }
+        Bson afterId = asc ? Filters.gt("_id", id) : Filters.lt("_id", id);
+        if ("_id".equals(orderKey)) {
+            return afterId;
+        }
+        if (value == null) {
+            // 正序: 剩下的null记录, 然后是所有有值的记录; 倒序: null已经在最后, 只剩null记录
+            Bson sameNull = Filters.and(Filters.eq(orderKey, null), afterId);
+            return asc ? Filters.or(sameNull, Filters.ne(orderKey, null)) : sameNull;
+        }
+        Bson sameValue = Filters.and(Filters.eq(orderKey, value), afterId);
+        if (asc) {
+            return Filters.or(Filters.gt(orderKey, value), sameValue);
+        }
+        // 倒序时null记录排在所有值之后
+        return Filters.or(Filters.lt(orderKey, value), sameValue, Filters.eq(orderKey, null));
+    }
+
+    public String getOrderKey() {
+        return orderKey;
+    }
+
+    public int getRule() {
+        return rule;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        String json = new Document(KEY, orderKey).append(RULE, rule).append(VALUE, value).append(ID, id).toJson();
+        return ENCODING.encode(json.getBytes(Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,163 @@
+package che.service.utils.mongo;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Description: 聚合管道构建器, 由MongodbDao.aggregate创建, 统计在mongo中完成, 只把结果映射为DTO取回.
+ * <p>
+ * 例: 每条航线每天的最低价
+ * <pre>
+ * List&lt;LowestFare&gt; list = fareDao.aggregate(dbName, LowestFare.class)
+ *         .match(Filters.gte("FlightDate", from))
+ *         .group(new Document("Route", "$Route").append("Day", "$FlightDate"), Accumulators.min("MinPrice", "$Price"))
+ *         .sort(Sorts.ascending("_id.Route", "_id.Day"))
+ *         .allowDiskUse(true)
+ *         .list();
+ * </pre>
+ * LowestFare有Route、Day、MinPrice字段即可, 多字段分组的_id会展开到DTO上
+ *
+ * @param <R> 结果类型
+ */
+public class MongoAggregation<R> {
+
+    private final String dbName;
+
+    private final Class<?> entityClass;
+
+    private final Class<R> resultClass;
+
+    private final List<Bson> pipeline = new ArrayList<Bson>();
+
+    private Boolean allowDiskUse;
+
+    private int batchSize;
+
+    public MongoAggregation(String dbName, Class<?> entityClass, Class<R> resultClass) {
+        this.dbName = dbName;
+        this.entityClass = entityClass;
+        this.resultClass = resultClass;
+    }
+
+    public MongoAggregation<R> match(Bson filter) {
+        return stage(Aggregates.match(filter));
+    }
+
+    /**
+     * 多个条件and后$match, 与findByFilter的listBson一致, 为空时不加
+     *
+     * @param listBson
+     * @return
+     */
+    public MongoAggregation<R> match(List<Bson> listBson) {
+        if (listBson == null || listBson.isEmpty()) {
+            return this;
+        }
+        return match(Filters.and(listBson));
+    }
+
+    /**
+     * $group
+     *
+     * @param id           分组字段, 如"$Route", 多字段时传Document, 为null时全部分为一组
+     * @param accumulators 见Accumulators
+     * @return
+     */
+    public <TExpression> MongoAggregation<R> group(TExpression id, BsonField... accumulators) {
+        return stage(Aggregates.group(id, accumulators));
+    }
+
+    public MongoAggregation<R> sort(Bson sort) {
+        return stage(Aggregates.sort(sort));
+    }
+
+    public MongoAggregation<R> project(Bson projection) {
+        return stage(Aggregates.project(projection));
+    }
+
+    public MongoAggregation<R> unwind(String fieldName) {
+        return stage(Aggregates.unwind(fieldName));
+    }
+
+    public MongoAggregation<R> skip(int skip) {
+        return stage(Aggregates.skip(skip));
+    }
+
+    public MongoAggregation<R> limit(int limit) {
+        return stage(Aggregates.limit(limit));
+    }
+
+    /**
+     * $facet, 一次扫描同时计算多组统计, 结果只有一个文档, 每个facet是其中的一个数组字段
+     *
+     * @param facets
+     * @return
+     */
+    public MongoAggregation<R> facet(Facet... facets) {
+        return stage(Aggregates.facet(facets));
+    }
+
+    /**
+     * 添加任意阶段, 见Aggregates
+     *
+     * @param stage
+     * @return
+     */
+    public MongoAggregation<R> stage(Bson stage) {
+        pipeline.add(stage);
+        return this;
+    }
+
+    /**
+     * $group/$sort超过服务端内存限制时允许写临时文件
+     *
+     * @param allowDiskUse
+     * @return
+     */
+    public MongoAggregation<R> allowDiskUse(boolean allowDiskUse) {
+        this.allowDiskUse = allowDiskUse;
+        return this;
+    }
+
+    /**
+     * 游标每批取回的文档数, 小于等于0时使用mongos.batchSize
+     *
+     * @param batchSize
+     * @return
+     */
+    public MongoAggregation<R> batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public List<Bson> getPipeline() {
+        return Collections.unmodifiableList(pipeline);
+    }
+
+    /**
+     * 执行聚合
+     *
+     * @return 出错时返回null
+     */
+    public List<R> list() {
+        return MongoDBUtil.aggregate(dbName, entityClass, pipeline, resultClass, allowDiskUse, batchSize);
+    }
+
+    /**
+     * 执行聚合, 取第一个结果, 适合$facet和不分组的$group
+     *
+     * @return 没有结果或出错时返回null
+     */
+    public R first() {
+        List<R> list = MongoDBUtil.aggregate(dbName, entityClass, pipeline, resultClass, allowDiskUse, batchSize);
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+}
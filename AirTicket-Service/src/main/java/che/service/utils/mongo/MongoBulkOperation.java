@@ -0,0 +1,203 @@
+package che.service.utils.mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Description: 批量写构建器, 可混合插入、更新、upsert和删除.
+ * execute时按batchSize分批以无序bulkWrite发送, 每批一次往返, 可选多批并行.
+ * 一个操作失败不影响其他操作, 结果中返回每个操作的成败和汇总条数
+ * <p>
+ * 用法: dao.bulk(dbName).insert(a).updateOne(Filters.eq("Id", id), b).deleteOne(Filters.eq("Id", id2)).execute();
+ *
+ * @param <T>
+ */
+public class MongoBulkOperation<T extends BaseMongoEntity<?>> {
+
+    private static Logger logger = LoggerFactory.getLogger(MongoBulkOperation.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final String dbName;
+
+    private final Class<T> clazz;
+
+    private final List<WriteModel<T>> models = new ArrayList<WriteModel<T>>();
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private boolean parallel;
+
+    public MongoBulkOperation(String dbName, Class<T> clazz) {
+        this.dbName = dbName;
+        this.clazz = clazz;
+    }
+
+    /**
+     * 插入实体
+     */
+    public MongoBulkOperation<T> insert(T entity) {
+        models.add(new InsertOneModel<T>(entity));
+        return this;
+    }
+
+    /**
+     * 更新第一条匹配的记录, $set实体中不为null的字段
+     */
+    public MongoBulkOperation<T> updateOne(Bson filter, T newEntity) {
+        models.add(new UpdateOneModel<T>(filter, new Document("$set", newEntity)));
+        return this;
+    }
+
+    /**
+     * 以任意更新语句更新第一条匹配的记录, 如$inc
+     */
+    public MongoBulkOperation<T> updateOne(Bson filter, Bson update) {
+        models.add(new UpdateOneModel<T>(filter, update));
+        return this;
+    }
+
+    /**
+     * 更新所有匹配的记录, $set实体中不为null的字段
+     */
+    public MongoBulkOperation<T> updateMany(Bson filter, T newEntity) {
+        models.add(new UpdateManyModel<T>(filter, new Document("$set", newEntity)));
+        return this;
+    }
+
+    /**
+     * 有匹配记录时更新, 没有时插入
+     */
+    public MongoBulkOperation<T> upsert(Bson filter, T newEntity) {
+        models.add(new UpdateOneModel<T>(filter, new Document("$set", newEntity), new UpdateOptions().upsert(true)));
+        return this;
+    }
+
+    /**
+     * 删除第一条匹配的记录
+     */
+    public MongoBulkOperation<T> deleteOne(Bson filter) {
+        models.add(new DeleteOneModel<T>(filter));
+        return this;
+    }
+
+    /**
+     * 删除所有匹配的记录
+     */
+    public MongoBulkOperation<T> deleteMany(Bson filter) {
+        models.add(new DeleteManyModel<T>(filter));
+        return this;
+    }
+
+    /**
+     * 每批发送的操作数, 默认1000
+     */
+    public MongoBulkOperation<T> batchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        return this;
+    }
+
+    /**
+     * 多批时是否在线程池中并行发送, 默认否
+     */
+    public MongoBulkOperation<T> parallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public int size() {
+        return models.size();
+    }
+
+    /**
+     * 执行所有操作
+     *
+     * @return
+     */
+    public MongoBulkResult execute() {
+        final MongoBulkResult result = new MongoBulkResult(models.size());
+        if (models.isEmpty()) {
+            return result;
+        }
+        List<List<WriteModel<T>>> batches = Lists.partition(models, batchSize);
+        ExecutorService executor = parallel && batches.size() > 1 ? MongoDBUtil.getQueryExecutor() : null;
+        if (executor == null) {
+            for (int i = 0; i < batches.size(); i++) {
+                executeBatch(batches.get(i), i * batchSize, result);
+            }
+            return result;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < batches.size(); i++) {
+            final List<WriteModel<T>> batch = batches.get(i);
+            final int offset = i * batchSize;
+            futures.add(executor.submit(MongoOptionsScope.propagate(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executeBatch(batch, offset, result);
+                    return null;
+                }
+            })));
+        }
+        executeBatch(batches.get(0), 0, result);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (Exception e) {
+                int offset = (i + 1) * batchSize;
+                markFailed(batches.get(i + 1).size(), offset, e, result);
+            }
+        }
+        return result;
+    }
+
+    private void executeBatch(List<WriteModel<T>> batch, int offset, MongoBulkResult result) {
+        try {
+            addCounts(MongoDBUtil.bulkWrite(dbName, clazz, batch, false), result);
+        } catch (MongoBulkWriteException e) {
+            addCounts(e.getWriteResult(), result);
+            for (BulkWriteError error : e.getWriteErrors()) {
+                result.addError(offset + error.getIndex(), error.getMessage());
+            }
+        } catch (Exception e) {
+            markFailed(batch.size(), offset, e, result);
+        }
+    }
+
+    private void markFailed(int size, int offset, Exception e, MongoBulkResult result) {
+        logger.error(e.getMessage(), e);
+        for (int i = 0; i < size; i++) {
+            result.addError(offset + i, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void addCounts(BulkWriteResult writeResult, MongoBulkResult result) {
+        if (writeResult == null || !writeResult.wasAcknowledged()) {
+            return;
+        }
+        result.addCounts(writeResult.getInsertedCount(), writeResult.getMatchedCount(),
+                writeResult.isModifiedCountAvailable() ? writeResult.getModifiedCount() : 0,
+                writeResult.getDeletedCount(), writeResult.getUpserts().size());
+    }
+}
@@ -0,0 +1,119 @@
+package che.service.utils.mongo;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Description: 批量写的结果, 包括汇总的条数和每个操作的成败.
+ * 操作下标与加入MongoBulkOperation的顺序一致
+ * <p>
+ */
+public class MongoBulkResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int operationCount;
+
+    private int insertedCount;
+
+    private int matchedCount;
+
+    private int modifiedCount;
+
+    private int deletedCount;
+
+    private int upsertedCount;
+
+    /**
+     * 失败操作的下标 -> 错误信息
+     */
+    private final Map<Integer, String> errors = new TreeMap<Integer, String>();
+
+    public MongoBulkResult(int operationCount) {
+        this.operationCount = operationCount;
+    }
+
+    synchronized void addCounts(int inserted, int matched, int modified, int deleted, int upserted) {
+        this.insertedCount += inserted;
+        this.matchedCount += matched;
+        this.modifiedCount += modified;
+        this.deletedCount += deleted;
+        this.upsertedCount += upserted;
+    }
+
+    synchronized void addError(int index, String message) {
+        errors.put(index, message);
+    }
+
+    /**
+     * 所有操作是否都成功
+     *
+     * @return
+     */
+    public synchronized boolean isSuccess() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * 第index个操作是否成功
+     *
+     * @param index
+     * @return
+     */
+    public synchronized boolean isSuccess(int index) {
+        return !errors.containsKey(index);
+    }
+
+    /**
+     * 第index个操作的错误信息, 成功时返回null
+     *
+     * @param index
+     * @return
+     */
+    public synchronized String getError(int index) {
+        return errors.get(index);
+    }
+
+    /**
+     * 失败操作的下标 -> 错误信息
+     *
+     * @return
+     */
+    public synchronized Map<Integer, String> getErrors() {
+        return Collections.unmodifiableMap(new TreeMap<Integer, String>(errors));
+    }
+
+    public int getOperationCount() {
+        return operationCount;
+    }
+
+    public synchronized int getInsertedCount() {
+        return insertedCount;
+    }
+
+    public synchronized int getMatchedCount() {
+        return matchedCount;
+    }
+
+    public synchronized int getModifiedCount() {
+        return modifiedCount;
+    }
+
+    public synchronized int getDeletedCount() {
+        return deletedCount;
+    }
+
+    public synchronized int getUpsertedCount() {
+        return upsertedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MongoBulkResult{operations=" + operationCount + ", inserted=" + insertedCount + ", matched=" + matchedCount
+                + ", modified=" + modifiedCount + ", deleted=" + deletedCount + ", upserted=" + upsertedCount
+                + ", errors=" + errors.size() + "}";
+    }
+}
@@ -0,0 +1,30 @@
+package che.service.utils.mongo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Description: 开启MongodbDao的查询结果缓存, 只适合读多写少的数据, 如航班详情、运价规则.
+ * 通过同一进程写入该collection时整个collection的缓存失效, 其他进程的写入要等ttlSeconds过期
+ * <p>
+ * 例: @MongoCache(ttlSeconds = 60, maxSize = 5000)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MongoCache {
+
+    /**
+     * 写入缓存后的过期时间
+     */
+    long ttlSeconds() default 60;
+
+    /**
+     * 每个(dbName, collection)最多缓存的查询数, 超出时淘汰最近最少使用的
+     */
+    long maxSize() default 1000;
+}
@@ -0,0 +1,395 @@
+package che.service.utils.mongo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Description: MongoDBUtil操作的自适应并发限制, 按collection分组, 每组一个AIMD限制:
+ * 操作耗时低于阈值时限制缓慢增加(每个成功操作+1/limit), 超过阈值时乘以0.9, 每个阈值窗口最多降一次.
+ * 聚合、批量写、多文档更新删除、延迟批量插入、findMapByIds、iterateByFilter的游标(读完或close前一直占用)等长耗时操作
+ * 用acquireLongRunning, 占用并发但耗时不参与调整,
+ * 一个报表查询不会把整组的限制一直往下压.
+ * 限制最多为连接池大小, 启用后驱动的等待队列也相应缩小(见MongoDBUtil.afterPropertiesSet), 超出部分在这里拒绝而不是在驱动里排队.
+ * 超出限制的请求最多等待maxWaitMillis(默认0, 立即拒绝), 拒绝的请求返回各方法的失败值并计入MongoMetrics的rejected,
+ * 返回null会与"没有记录"混淆的方法(getOne、findOneAndUpdate)抛出MongoLimitExceededException.
+ * 避免mongo变慢时几千个线程堆在驱动的等待队列里一起超时
+ * <p>
+ * 默认关闭, mongos.limiter.enabled=true时启用. 参数在MongoDBUtil.afterPropertiesSet中通过mongos.limiter.*配置, 分组如
+ * mongos.limiter.groups=search:Flight,Fare;booking:Order, 未列出的collection归入default组
+ */
+public final class MongoConcurrencyLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(MongoConcurrencyLimiter.class);
+
+    public static final String DEFAULT_GROUP = "default";
+
+    private static final String REJECTED = "rejected";
+
+    /**
+     * 未启用时使用, release什么都不做
+     */
+    private static final Permit NOOP = new Permit(null, 0, false);
+
+    private static final ConcurrentMap<String, Limiter> LIMITERS = new ConcurrentHashMap<String, Limiter>();
+
+    private static volatile boolean enabled = false;
+
+    private static volatile Map<String, String> collectionGroups = Collections.emptyMap();
+
+    private static volatile int initialLimit = 150;
+
+    private static volatile int minLimit = 5;
+
+    private static volatile int maxLimit = 300;
+
+    private static volatile long latencyThresholdMillis = 500;
+
+    private static volatile long maxWaitMillis = 0;
+
+    private MongoConcurrencyLimiter() {
+    }
+
+    /**
+     * 设置参数并清空已有分组, 由MongoDBUtil.afterPropertiesSet调用
+     *
+     * @param enabled
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     * @param latencyThresholdMillis 超过该耗时视为过载
+     * @param maxWaitMillis          超出限制时的最长等待时间, 0为立即拒绝
+     * @param groups                 分组配置, 格式 group:collection,collection;group:collection
+     */
+    static void configure(boolean enabled, int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis,
+                          long maxWaitMillis, String groups) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("limiter requires 0 < minLimit <= maxLimit");
+        }
+        MongoConcurrencyLimiter.initialLimit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        MongoConcurrencyLimiter.minLimit = minLimit;
+        MongoConcurrencyLimiter.maxLimit = maxLimit;
+        MongoConcurrencyLimiter.latencyThresholdMillis = latencyThresholdMillis;
+        MongoConcurrencyLimiter.maxWaitMillis = maxWaitMillis;
+        MongoConcurrencyLimiter.collectionGroups = parseGroups(groups);
+        LIMITERS.clear();
+        MongoConcurrencyLimiter.enabled = enabled;
+        logger.info("mongo concurrency limiter enabled={} limit={} min={} max={} latencyThreshold={}ms maxWait={}ms groups={}",
+                enabled, MongoConcurrencyLimiter.initialLimit, minLimit, maxLimit, latencyThresholdMillis, maxWaitMillis,
+                MongoConcurrencyLimiter.collectionGroups);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取实体类所在分组的一个许可, 超出限制且等待超时返回null.
+     * 拿到许可后必须在finally中release
+     *
+     * @param clazz 实体类
+     * @return
+     */
+    static Permit acquire(Class<?> clazz) {
+        return acquire(clazz, true);
+    }
+
+    /**
+     * 同acquire, 超出限制时抛出MongoLimitExceededException, 用于本身就会抛异常的方法
+     *
+     * @param clazz
+     * @return
+     */
+    static Permit acquireOrThrow(Class<?> clazz) {
+        return orThrow(clazz, acquire(clazz, true));
+    }
+
+    /**
+     * 长耗时操作(聚合、批量写、多文档更新删除、大批量查询)的许可, 占用并发, 但耗时不参与限制的调整
+     *
+     * @param clazz 实体类
+     * @return 超出限制且等待超时返回null
+     */
+    static Permit acquireLongRunning(Class<?> clazz) {
+        return acquire(clazz, false);
+    }
+
+    /**
+     * 同acquireLongRunning, 超出限制时抛出MongoLimitExceededException
+     *
+     * @param clazz
+     * @return
+     */
+    static Permit acquireLongRunningOrThrow(Class<?> clazz) {
+        return orThrow(clazz, acquire(clazz, false));
+    }
+
+    /**
+     * 分组个数(包括default组), MongoDBUtil按此设置驱动等待队列的大小
+     *
+     * @return
+     */
+    static int groupCount() {
+        return new HashSet<String>(collectionGroups.values()).size() + 1;
+    }
+
+    private static Permit acquire(Class<?> clazz, boolean adjustLimit) {
+        if (!enabled) {
+            return NOOP;
+        }
+        String collection = MongoDBUtil.getTableName(clazz);
+        Limiter limiter = limiterFor(collection);
+        if (limiter.tryAcquire() || (maxWaitMillis > 0 && limiter.await(maxWaitMillis))) {
+            return new Permit(limiter, System.nanoTime(), adjustLimit);
+        }
+        limiter.rejected.incrementAndGet();
+        MongoMetrics.recordError(collection, REJECTED);
+        return null;
+    }
+
+    private static Permit orThrow(Class<?> clazz, Permit permit) {
+        if (permit == null) {
+            throw new MongoLimitExceededException(groupOf(MongoDBUtil.getTableName(clazz)));
+        }
+        return permit;
+    }
+
+    /**
+     * 每个分组一行: group, limit, inflight, rejected, decreases
+     *
+     * @return
+     */
+    public static List<Map<String, Object>> snapshotAsMaps() {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+        for (Limiter limiter : LIMITERS.values()) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("group", limiter.group);
+            map.put("limit", limiter.getLimit());
+            map.put("inflight", limiter.inflight.get());
+            map.put("rejected", limiter.rejected.get());
+            map.put("decreases", limiter.decreases.get());
+            list.add(map);
+        }
+        return list;
+    }
+
+    /**
+     * collection所属分组
+     *
+     * @param collection
+     * @return
+     */
+    public static String groupOf(String collection) {
+        String group = collectionGroups.get(collection);
+        return group == null ? DEFAULT_GROUP : group;
+    }
+
+    private static Limiter limiterFor(String collection) {
+        String group = groupOf(collection);
+        Limiter limiter = LIMITERS.get(group);
+        if (limiter == null) {
+            limiter = new Limiter(group, initialLimit);
+            Limiter exists = LIMITERS.putIfAbsent(group, limiter);
+            if (exists != null) {
+                limiter = exists;
+            }
+        }
+        return limiter;
+    }
+
+    private static Map<String, String> parseGroups(String groups) {
+        Map<String, String> map = new HashMap<String, String>();
+        if (groups == null || groups.trim().isEmpty()) {
+            return map;
+        }
+        for (String item : groups.split(";")) {
+            int index = item.indexOf(':');
+            if (index <= 0) {
+                continue;
+            }
+            String group = item.substring(0, index).trim();
+            for (String collection : item.substring(index + 1).split(",")) {
+                if (!collection.trim().isEmpty()) {
+                    map.put(collection.trim(), group);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 一次操作的许可, 释放时按耗时调整分组的限制
+     */
+    static final class Permit {
+
+        private final Limiter limiter;
+
+        private final long startNanos;
+
+        /**
+         * 耗时是否参与限制的调整, 长耗时操作为false
+         */
+        private final boolean adjustLimit;
+
+        private Permit(Limiter limiter, long startNanos, boolean adjustLimit) {
+            this.limiter = limiter;
+            this.startNanos = startNanos;
+            this.adjustLimit = adjustLimit;
+        }
+
+        void release() {
+            if (limiter != null) {
+                limiter.release(System.nanoTime() - startNanos, adjustLimit);
+            }
+        }
+    }
+
+    /**
+     * 一个分组的AIMD限制, 获取许可是对inflight的CAS, 调整限制是对limit的CAS(double的long位), 都不加锁.
+     * 只有等待许可(maxWaitMillis > 0)的线程在监视器上等待
+     */
+    private static final class Limiter {
+
+        private final String group;
+
+        private final AtomicInteger inflight = new AtomicInteger();
+
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        private final AtomicLong decreases = new AtomicLong();
+
+        /**
+         * 当前限制, double的long位
+         */
+        private final AtomicLong limitBits;
+
+        private final AtomicLong lastDecreaseNanos;
+
+        private Limiter(String group, int limit) {
+            this.group = group;
+            this.limitBits = new AtomicLong(Double.doubleToLongBits(limit));
+            this.lastDecreaseNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+        }
+
+        private double limit() {
+            return Double.longBitsToDouble(limitBits.get());
+        }
+
+        private int getLimit() {
+            return (int) limit();
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                int current = inflight.get();
+                if (current >= getLimit()) {
+                    return false;
+                }
+                if (inflight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean await(long waitMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            waiters.incrementAndGet();
+            try {
+                synchronized (this) {
+                    while (!tryAcquire()) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+
+        private void release(long elapsedNanos, boolean adjustLimit) {
+            int current = inflight.decrementAndGet();
+            long threshold = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+            if (!adjustLimit) {
+                // 长耗时操作只占用并发, 不作为过载信号
+            } else if (elapsedNanos > threshold) {
+                decrease(threshold);
+            } else if (current + 1 >= getLimit() / 2) {
+                // 只有用到一半以上时才增加, 避免空闲时限制无限增长
+                increase();
+            }
+            if (waiters.get() > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void increase() {
+            while (true) {
+                long bits = limitBits.get();
+                double current = Double.longBitsToDouble(bits);
+                double next = Math.min(maxLimit, current + 1.0 / current);
+                if (next == current || limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                    return;
+                }
+            }
+        }
+
+        private void decrease(long thresholdNanos) {
+            long now = System.nanoTime();
+            long last = lastDecreaseNanos.get();
+            // 同一个慢窗口内完成的请求只降一次, 抢到这个窗口的线程负责降
+            if (now - last < thresholdNanos || !lastDecreaseNanos.compareAndSet(last, now)) {
+                return;
+            }
+            double previous;
+            double next;
+            while (true) {
+                long bits = limitBits.get();
+                previous = Double.longBitsToDouble(bits);
+                next = Math.max(minLimit, previous * 0.9);
+                if (limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                    break;
+                }
+            }
+            decreases.incrementAndGet();
+            if ((int) previous != (int) next) {
+                logger.warn("mongo group {} slow, concurrency limit {} -> {}", group, (int) previous, (int) next);
+            }
+        }
+    }
+
+    /**
+     * 超出分组并发限制
+     */
+    public static class MongoLimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public MongoLimitExceededException(String group) {
+            super("mongo concurrency limit exceeded for group " + group);
+        }
+    }
+}
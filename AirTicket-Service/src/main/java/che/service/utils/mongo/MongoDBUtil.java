@@ -1,29 +1,66 @@
 package che.service.utils.mongo;
 
 import che.service.utils.page.Page;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.Block;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.WriteModel;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import javax.persistence.Table;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * MongoDB工具类 Mongo实例代表了一个数据库连接池，即使在多线程的环境中，一个Mongo实例对我们来说已经足够了<br>
@@ -35,7 +72,7 @@ import java.util.Map;
  */
 
 @Component
-public class MongoDBUtil implements InitializingBean {
+public class MongoDBUtil implements InitializingBean, DisposableBean {
 
 	protected static Logger logger = LoggerFactory.getLogger(MongoDBUtil.class);
 
@@ -43,8 +80,54 @@ public class MongoDBUtil implements InitializingBean {
 
 	public static final int DESC = -1;
 
+	/**
+	 * 按id批量查询时每个$in的最大id数，超过时分批并行查询
+	 */
+	public static final int ID_CHUNK_SIZE = 500;
+
 	private static MongoClient mongoClient;
 
+	/**
+	 * dbName -> 实体类 -> collection, 见getCollection(String, Class)
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<Class<?>, MongoCollection<?>>> entityCollections = new ConcurrentHashMap<String, ConcurrentMap<Class<?>, MongoCollection<?>>>();
+
+	/**
+	 * dbName -> collection名 -> collection, 见getCollection(String, String)
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<String, MongoCollection<Document>>> documentCollections = new ConcurrentHashMap<String, ConcurrentMap<String, MongoCollection<Document>>>();
+
+	/**
+	 * 游标每批从服务端取回的文档数，0表示使用驱动默认值，可通过mongos.batchSize配置
+	 */
+	private static int defaultBatchSize = 0;
+
+	/**
+	 * 与分页查询并行执行count等辅助查询的线程池，可通过mongos.queryThreads配置大小
+	 */
+	private static ExecutorService queryExecutor;
+
+	/**
+	 * 视图类 -> projection，见projectionOf
+	 */
+	private static final ConcurrentMap<Class<?>, Bson> projections = new ConcurrentHashMap<Class<?>, Bson>();
+
+	/**
+	 * 近似总数的缓存，过期时间可通过mongos.countCacheSeconds配置
+	 */
+	private static Cache<String, Long> countCache = CacheBuilder.newBuilder().maximumSize(10000)
+			.expireAfterWrite(60, TimeUnit.SECONDS).build();
+
+	/**
+	 * collection名 -> 配置的默认读写选项, 来自mongos.collections.[collection名].readPreference/readConcern/writeConcern/maxTimeMS
+	 */
+	private static Map<String, MongoOperationOptions> collectionOptions = new HashMap<String, MongoOperationOptions>();
+
+	/**
+	 * 实体类 -> 默认读写选项, 见getDefaultOptions
+	 */
+	private static final ConcurrentMap<Class<?>, MongoOperationOptions> defaultOptions = new ConcurrentHashMap<Class<?>, MongoOperationOptions>();
+
 	@Resource
 	private Environment env;
 
@@ -100,6 +183,24 @@ public class MongoDBUtil implements InitializingBean {
 		return null;
 	}
 
+	/**
+	 * 执行count、分批查询等辅助任务的线程池，未初始化时返回null
+	 *
+	 * @return
+	 */
+	static ExecutorService getQueryExecutor() {
+		return queryExecutor;
+	}
+
+	/**
+	 * 客户端使用的编解码器, 包括实体的EntityCodec
+	 *
+	 * @return
+	 */
+	public static CodecRegistry getCodecRegistry() {
+		return mongoClient.getMongoClientOptions().getCodecRegistry();
+	}
+
 	/**
 	 * 获取collection对象 - 指定Collection
 	 *
@@ -110,36 +211,261 @@ public class MongoDBUtil implements InitializingBean {
 		if (StringUtils.isBlank(dbName) || StringUtils.isBlank(collectionName)) {
 			return null;
 		}
-		MongoCollection<Document> collection = mongoClient.getDatabase(dbName).getCollection(collectionName);
+		ConcurrentMap<String, MongoCollection<Document>> byName = documentCollections.get(dbName);
+		if (byName == null) {
+			byName = new ConcurrentHashMap<String, MongoCollection<Document>>();
+			ConcurrentMap<String, MongoCollection<Document>> exists = documentCollections.putIfAbsent(dbName, byName);
+			if (exists != null) {
+				byName = exists;
+			}
+		}
+		MongoCollection<Document> collection = byName.get(collectionName);
+		if (collection == null) {
+			collection = mongoClient.getDatabase(dbName).getCollection(collectionName);
+			byName.putIfAbsent(collectionName, collection);
+		}
 		return collection;
 	}
 
+	/**
+	 * 获取实体对应的collection, 读写时由EntityCodec直接编解码实体.
+	 * 按(dbName, 实体类)缓存, 多租户按dbName路由时不再每次创建
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> MongoCollection<T> getCollection(String dbName, Class<T> clazz) {
+		if (StringUtils.isBlank(dbName)) {
+			return null;
+		}
+		ConcurrentMap<Class<?>, MongoCollection<?>> byClass = entityCollections.get(dbName);
+		if (byClass == null) {
+			byClass = new ConcurrentHashMap<Class<?>, MongoCollection<?>>();
+			ConcurrentMap<Class<?>, MongoCollection<?>> exists = entityCollections.putIfAbsent(dbName, byClass);
+			if (exists != null) {
+				byClass = exists;
+			}
+		}
+		MongoCollection<T> collection = (MongoCollection<T>) byClass.get(clazz);
+		if (collection == null) {
+			collection = getDefaultOptions(clazz).apply(mongoClient.getDatabase(dbName).getCollection(getTableName(clazz), clazz));
+			byClass.putIfAbsent(clazz, collection);
+		}
+		return collection;
+	}
+
+	/**
+	 * 实体的默认读写选项: 配置mongos.collections.[collection名].*优先, 其次是实体上的@MongoOptions
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static MongoOperationOptions getDefaultOptions(Class<?> clazz) {
+		MongoOperationOptions options = defaultOptions.get(clazz);
+		if (options == null) {
+			MongoEntityMetadata<?> metadata = MongoEntityMetadata.forClass(clazz);
+			MongoOperationOptions configured = collectionOptions.get(metadata.getCollectionName());
+			options = configured == null ? metadata.getOptions() : configured.withDefaults(metadata.getOptions());
+			defaultOptions.putIfAbsent(clazz, options);
+		}
+		return options;
+	}
+
+	/**
+	 * 实体的collection, 当前线程有MongoOptionsScope时使用其中的读写选项
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> MongoCollection<T> getEntityCollection(String dbName, Class<?> clazz) {
+		MongoCollection<T> collection = (MongoCollection<T>) getCollection(dbName, clazz);
+		MongoOperationOptions scoped = MongoOptionsScope.current();
+		return scoped == null ? collection : scoped.apply(collection);
+	}
+
+	/**
+	 * 以Document读写实体的collection, 读写选项与getEntityCollection相同
+	 */
+	private static MongoCollection<Document> getDocumentCollection(String dbName, Class<?> clazz) {
+		return getEntityCollection(dbName, clazz).withDocumentClass(Document.class);
+	}
+
+	/**
+	 * 生效的maxTimeMS: 当前MongoOptionsScope优先, 其次是实体默认值, 0表示不限制
+	 */
+	static long getMaxTimeMS(Class<?> clazz) {
+		MongoOperationOptions scoped = MongoOptionsScope.current();
+		if (scoped != null && scoped.getMaxTimeMS() != null) {
+			return scoped.getMaxTimeMS();
+		}
+		Long maxTimeMS = getDefaultOptions(clazz).getMaxTimeMS();
+		return maxTimeMS == null ? 0 : maxTimeMS;
+	}
+
+	/**
+	 * 查询, 带上生效的maxTimeMS
+	 */
+	private static <T> FindIterable<T> find(MongoCollection<T> coll, Class<?> clazz, Bson filter) {
+		FindIterable<T> findIterable = filter == null ? coll.find() : coll.find(filter);
+		long maxTimeMS = getMaxTimeMS(clazz);
+		if (maxTimeMS > 0) {
+			findIterable.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+		}
+		return findIterable;
+	}
+
+	/**
+	 * 统计, 带上生效的maxTimeMS
+	 */
+	private static long count(MongoCollection<?> coll, Class<?> clazz, Bson filter) {
+		CountOptions options = new CountOptions();
+		long maxTimeMS = getMaxTimeMS(clazz);
+		if (maxTimeMS > 0) {
+			options.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+		}
+		return coll.count(filter == null ? new Document() : filter, options);
+	}
+
 	public static boolean insertOne(String dbName, Class<?> clazz, Document document) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
 			coll.insertOne(document);
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("insertOne", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	};
 
 	public static boolean insertMany(String dbName, Class<?> clazz, List<Document> documentList) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
 			coll.insertMany(documentList);
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("insertMany", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	};
 
+	public static <T extends BaseMongoEntity<?>> boolean insertOne(String dbName, Class<?> clazz, T entity) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
+		try {
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			coll.insertOne(entity);
+		} catch (Exception e) {
+			logError("insertOne", clazz, e);
+			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+		return true;
+	}
+
+	/**
+	 * 批量插入实体, 实体由EntityCodec直接写入, 不再先转成Document
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param entityList
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> boolean insertManyEntities(String dbName, Class<?> clazz, List<T> entityList) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return false;
+		}
+		try {
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			coll.insertMany(entityList);
+		} catch (Exception e) {
+			logError("insertManyEntities", clazz, e);
+			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+		return true;
+	}
+
+	/**
+	 * 批量插入实体, 不按顺序执行, 一条失败不影响其他记录, 供MongoWriteBehindBuffer写入和重试.
+	 * 实体需先分配_id(assignInsertId), _id重复的记录是上次已经写入的, 不再重试
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param entityList
+	 * @return 需要重试的记录, 全部写入时为空列表; 被限流或整批失败时为entityList
+	 */
+	static <T extends BaseMongoEntity<?>> List<T> insertManyForRetry(String dbName, Class<?> clazz, List<T> entityList) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return entityList;
+		}
+		try {
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			coll.insertMany(entityList, new InsertManyOptions().ordered(false));
+			return Collections.emptyList();
+		} catch (MongoBulkWriteException e) {
+			List<T> failed = new ArrayList<T>();
+			for (BulkWriteError error : e.getWriteErrors()) {
+				if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+					failed.add(entityList.get(error.getIndex()));
+				}
+			}
+			if (!failed.isEmpty() || e.getWriteConcernError() != null) {
+				logError("insertManyForRetry", clazz, e);
+			}
+			return failed;
+		} catch (Exception e) {
+			logError("insertManyForRetry", clazz, e);
+			return entityList;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+	}
+
+	/**
+	 * 批量写，ordered为false时各操作互不影响，服务端可并行执行<br>
+	 * 与其他方法不同，出错时直接抛出异常，由调用方处理每个操作的结果，见MongoBulkOperation
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param models
+	 * @param ordered
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> BulkWriteResult bulkWrite(String dbName, Class<?> clazz, List<? extends WriteModel<? extends T>> models, boolean ordered) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunningOrThrow(clazz);
+		try {
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			return coll.bulkWrite(models, new BulkWriteOptions().ordered(ordered));
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+	}
+
 	/**
 	 * 根据 key里的 字段 更新 newDocument
 	 * 
@@ -150,14 +476,19 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static boolean updateOne(String dbName, Class<?> clazz, Document key, Document newDocument) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
+			MongoCollection<Document> collection = getDocumentCollection(dbName, clazz);
 			collection.updateOne(key, new Document("$set", newDocument));
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("updateOne", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	}
@@ -174,14 +505,106 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static boolean updateMany(String dbName, Class<?> clazz, Document key, Document newDocument) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
 			coll.updateMany(key, new Document("$set", newDocument));
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("updateMany", clazz, e);
+			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+		return true;
+	}
+
+	/**
+	 * 根据 key里的 字段 更新实体中不为null的字段, $set的内容由EntityCodec直接写入
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param key
+	 * @param newEntity
+	 * @return
+	 */
+	public static boolean updateOne(String dbName, Class<?> clazz, Document key, BaseMongoEntity<?> newEntity) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
+		try {
+			MongoCollection<Document> collection = getDocumentCollection(dbName, clazz);
+			collection.updateOne(key, new Document("$set", newEntity));
+		} catch (Exception e) {
+			logError("updateOne", clazz, e);
+			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+		return true;
+	}
+
+	/**
+	 * 根据 key里的 字段 更新所有匹配记录中实体不为null的字段
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param key
+	 * @param newEntity
+	 * @return
+	 */
+	public static boolean updateMany(String dbName, Class<?> clazz, Document key, BaseMongoEntity<?> newEntity) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return false;
+		}
+		try {
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
+			coll.updateMany(key, new Document("$set", newEntity));
+		} catch (Exception e) {
+			logError("updateMany", clazz, e);
+			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+		return true;
+	}
+
+	/**
+	 * 按更新操作符更新, 如 {$set: {...}, $unset: {...}}, 见BaseMongoEntity.toUpdateDocument
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter
+	 * @param update 更新操作符
+	 * @param many   true更新所有匹配的记录, false只更新第一条
+	 * @return
+	 */
+	public static boolean update(String dbName, Class<?> clazz, Bson filter, Bson update, boolean many) {
+		MongoConcurrencyLimiter.Permit permit = many ? MongoConcurrencyLimiter.acquireLongRunning(clazz)
+				: MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
+		try {
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
+			if (many) {
+				coll.updateMany(filter, update);
+			} else {
+				coll.updateOne(filter, update);
+			}
+		} catch (Exception e) {
+			logError(many ? "updateMany" : "updateOne", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	}
@@ -195,14 +618,19 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static boolean deleteOne(String dbName, Class<?> clazz, Document document) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
 			coll.deleteOne(document);
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("deleteOne", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	}
@@ -216,31 +644,73 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static boolean deleteMany(String dbName, Class<?> clazz, Document document) {
-		String tableName = getTableName(clazz);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return false;
+		}
 		try {
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
 			coll.deleteMany(document);
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.debug(e.getMessage());
+			logError("deleteMany", clazz, e);
 			return false;
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
 		}
 		return true;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * 原子的查找并更新一条记录, 条件和更新在mongo中一次完成, 不需要先读再写.
+	 * 条件中可以带上守卫, 如 Filters.gte("Available", n) 配合 Updates.inc("Available", -n),
+	 * 守卫不满足时不会更新
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter    匹配条件, 包括守卫条件
+	 * @param update    更新操作符, 如 $inc、$set, 见Updates
+	 * @param returnNew true返回更新后的记录, false返回更新前的记录
+	 * @param upsert    没有匹配的记录时是否插入
+	 * @param <T>
+	 * @return 没有匹配的记录(守卫不满足)时返回null
+	 * @throws MongoConcurrencyLimiter.MongoLimitExceededException 超出并发限制时, 与守卫不满足区分开
+	 */
+	public static <T extends BaseMongoEntity<?>> T findOneAndUpdate(String dbName, Class<?> clazz, Bson filter, Bson update, boolean returnNew, boolean upsert) {
+		// 与其他方法不同, 出错时直接抛出异常, 返回null只表示没有匹配的记录
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireOrThrow(clazz);
+		try {
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+					.returnDocument(returnNew ? ReturnDocument.AFTER : ReturnDocument.BEFORE)
+					.upsert(upsert);
+			long maxTimeMS = getMaxTimeMS(clazz);
+			if (maxTimeMS > 0) {
+				options.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+			}
+			return coll.findOneAndUpdate(filter == null ? new Document() : filter, update, options);
+		} finally {
+			permit.release();
+			MongoQueryCache.invalidate(dbName, clazz);
+		}
+	}
+
+	/**
+	 * 查询第一条匹配的记录
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param document
+	 * @return 没有匹配的记录时返回null
+	 * @throws MongoConcurrencyLimiter.MongoLimitExceededException 超出并发限制时, 与没有记录区分开
+	 */
 	public static <T extends BaseMongoEntity<?>> T getOne(String dbName, Class<?> clazz, Document document) {
-		String tableName = getTableName(clazz);
-		MongoCollection<Document> collection = getCollection(dbName, tableName);
-		Document findFirst = collection.find(document).first();
-		T entity;
-		try {
-			if(findFirst==null) return null;
-			entity = (T) clazz.newInstance();
-			return (T) entity.toEntity(findFirst);
-		} catch (InstantiationException | IllegalAccessException e) {
-			e.printStackTrace();
-			return null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireOrThrow(clazz);
+		try {
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			return find(collection, clazz, document).first();
+		} finally {
+			permit.release();
 		}
 	}
 
@@ -248,75 +718,96 @@ public class MongoDBUtil implements InitializingBean {
 	 * 根据 实体里的赋值字段 查询
 	 *
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> find(String dbName, Class<?> clazz, Document document) {
-		String tableName = getTableName(clazz);
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable = collection.find(document);
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable = find(collection, clazz, document);
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("find", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> findByFilter(String dbName, Class<?> clazz, List<Bson> listBson) {
-		String tableName = getTableName(clazz);
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable;
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = collection.find(Filters.and(listBson));
+				findIterable = find(collection, clazz, Filters.and(listBson));
 			} else {
-				findIterable = collection.find();
+				findIterable = find(collection, clazz, null);
 			}
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("findByFilter", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> findByFilter(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy) {
-		String tableName = getTableName(clazz);
+		return findByFilter(dbName, clazz, listBson, orderBy, null);
+	}
+
+	/**
+	 * 只取projection中的字段，实体中只有这些字段有值，列表页不需要完整记录时使用
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param listBson
+	 * @param orderBy    可以为null
+	 * @param projection 可以为null，见Projections和projectionOf
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> List<T> findByFilter(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy, Bson projection) {
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable;
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = collection.find(Filters.and(listBson)).sort(orderBy);
+				findIterable = find(collection, clazz, Filters.and(listBson)).sort(orderBy).projection(projection);
 			} else {
-				findIterable = collection.find().sort(orderBy);
+				findIterable = find(collection, clazz, null).sort(orderBy).projection(projection);
 			}
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("findByFilter", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
@@ -330,84 +821,267 @@ public class MongoDBUtil implements InitializingBean {
 	 * @param <T>
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> findByFilterOr(String dbName, Class<?> clazz, List<Bson> listBson) {
-		String tableName = getTableName(clazz);
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable;
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = collection.find(Filters.or(listBson));
+				findIterable = find(collection, clazz, Filters.or(listBson));
 			} else {
-				findIterable = collection.find();
+				findIterable = find(collection, clazz, null);
 			}
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("findByFilterOr", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> findByFilterOr(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy) {
-		String tableName = getTableName(clazz);
+		return findByFilterOr(dbName, clazz, listBson, orderBy, null);
+	}
+
+	/**
+	 * or查询，只取projection中的字段
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param listBson
+	 * @param orderBy    可以为null
+	 * @param projection 可以为null，见Projections和projectionOf
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> List<T> findByFilterOr(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy, Bson projection) {
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable;
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = collection.find(Filters.or(listBson)).sort(orderBy);
+				findIterable = find(collection, clazz, Filters.or(listBson)).sort(orderBy).projection(projection);
 			} else {
-				findIterable = collection.find().sort(orderBy);
+				findIterable = find(collection, clazz, null).sort(orderBy).projection(projection);
 			}
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("findByFilterOr", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> List<T> findByFilterLimitOne(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy) {
-		String tableName = getTableName(clazz);
 		List<T> list = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
-			MongoCollection<Document> collection = getCollection(dbName, tableName);
-			FindIterable<Document> findIterable;
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = collection.find(Filters.and(listBson)).sort(orderBy).limit(1);
+				findIterable = find(collection, clazz, Filters.and(listBson)).sort(orderBy).limit(1);
 			} else {
-				findIterable = collection.find().sort(orderBy).limit(1);
+				findIterable = find(collection, clazz, null).sort(orderBy).limit(1);
 			}
 			list = new ArrayList<T>();
-			MongoCursor<Document> mongoCursor = findIterable.iterator();
+			MongoCursor<T> mongoCursor = findIterable.iterator();
 			while (mongoCursor.hasNext()) {
-				Document value = mongoCursor.next();
-				T entity = (T) clazz.newInstance();
-				list.add((T) entity.toEntity(value));
+				list.add(mongoCursor.next());
 			}
 			mongoCursor.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("findByFilterLimitOne", clazz, e);
+		} finally {
+			permit.release();
 		}
 		return list;
 	}
 
+	/**
+	 * 按id批量查询，每ID_CHUNK_SIZE个id一个$in查询，多于一批时在线程池中并行查询<br>
+	 * 返回的map按传入id的顺序排列，没查到的id不在map中
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param idKey 实体中的id字段名，如Id
+	 * @param ids
+	 * @param <T>
+	 * @return ids为空时返回空map，出错时返回null
+	 */
+	public static <T extends BaseMongoEntity<?>> Map<String, T> findMapByIds(final String dbName, final Class<?> clazz, final String idKey, Collection<String> ids) {
+		if (ids == null || ids.isEmpty()) {
+			return new LinkedHashMap<String, T>();
+		}
+		List<String> distinctIds = new ArrayList<String>(new LinkedHashSet<String>(ids));
+		List<List<String>> chunks = Lists.partition(distinctIds, ID_CHUNK_SIZE);
+		Map<String, T> found = new HashMap<String, T>(distinctIds.size() * 4 / 3 + 1);
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return null;
+		}
+		List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+		try {
+			ExecutorService executor = queryExecutor;
+			for (int i = 1; i < chunks.size() && executor != null; i++) {
+				final List<String> chunk = chunks.get(i);
+				futures.add(executor.submit(MongoOptionsScope.propagate(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						return findChunkByIds(dbName, clazz, idKey, chunk);
+					}
+				})));
+			}
+			List<List<T>> results = new ArrayList<List<T>>();
+			results.add(MongoDBUtil.<T>findChunkByIds(dbName, clazz, idKey, chunks.get(0)));
+			if (executor == null) {
+				for (int i = 1; i < chunks.size(); i++) {
+					results.add(MongoDBUtil.<T>findChunkByIds(dbName, clazz, idKey, chunks.get(i)));
+				}
+			}
+			for (Future<List<T>> future : futures) {
+				results.add(future.get());
+			}
+			for (List<T> result : results) {
+				for (T entity : result) {
+					found.put(String.valueOf(entity.getMongoValue(idKey)), entity);
+				}
+			}
+		} catch (Exception e) {
+			// 结果已经用不上, 取消还没完成的批次
+			for (Future<List<T>> future : futures) {
+				future.cancel(true);
+			}
+			logError("findMapByIds", clazz, e);
+			return null;
+		} finally {
+			permit.release();
+		}
+
+		Map<String, T> map = new LinkedHashMap<String, T>(found.size() * 4 / 3 + 1);
+		List<String> missing = null;
+		for (String id : distinctIds) {
+			T entity = found.get(id);
+			if (entity != null) {
+				map.put(id, entity);
+			} else {
+				if (missing == null) {
+					missing = new ArrayList<String>();
+				}
+				missing.add(id);
+			}
+		}
+		if (missing != null) {
+			logger.debug("{} of {} ids not found in {}: {}", missing.size(), distinctIds.size(), getTableName(clazz), missing);
+		}
+		return map;
+	}
+
+	private static <T extends BaseMongoEntity<?>> List<T> findChunkByIds(String dbName, Class<?> clazz, String idKey, List<String> ids) {
+		List<T> list = new ArrayList<T>(ids.size());
+		MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+		MongoCursor<T> mongoCursor = find(collection, clazz, Filters.in(idKey, ids)).iterator();
+		try {
+			while (mongoCursor.hasNext()) {
+				list.add(mongoCursor.next());
+			}
+		} finally {
+			mongoCursor.close();
+		}
+		return list;
+	}
+
+	/**
+	 * 按条件打开游标，逐条解码，内存占用与结果集大小无关，适合全表扫描类任务<br>
+	 * 游标在读完或close前一直占用一个并发许可(长耗时操作，耗时不参与限制的调整)，调用方必须close返回的游标，出错时返回null
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param listBson  and条件，为空时查询全部
+	 * @param orderBy   可以为null
+	 * @param batchSize 每批取回的文档数，小于等于0时使用mongos.batchSize
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> MongoCursor<T> iterateByFilter(String dbName, Class<?> clazz, List<Bson> listBson, Bson orderBy, int batchSize) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return null;
+		}
+		try {
+			MongoCollection<T> collection = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable;
+			if (listBson != null && listBson.size() > 0) {
+				findIterable = find(collection, clazz, Filters.and(listBson));
+			} else {
+				findIterable = find(collection, clazz, null);
+			}
+			if (orderBy != null) {
+				findIterable.sort(orderBy);
+			}
+			int size = batchSize > 0 ? batchSize : defaultBatchSize;
+			if (size > 0) {
+				findIterable.batchSize(size);
+			}
+			return new PermitCursor<T>(findIterable.iterator(), permit);
+		} catch (Exception e) {
+			permit.release();
+			logError("iterateByFilter", clazz, e);
+			return null;
+		}
+	}
+
+	/**
+	 * 按条件逐条回调，回调结束后自动关闭游标
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param listBson  and条件，为空时查询全部
+	 * @param batchSize 每批取回的文档数，小于等于0时使用mongos.batchSize
+	 * @param block     每条记录的回调
+	 * @param <T>
+	 * @return 全部处理完返回true，出错返回false
+	 */
+	public static <T extends BaseMongoEntity<?>> boolean forEachByFilter(String dbName, Class<?> clazz, List<Bson> listBson, int batchSize, Block<? super T> block) {
+		MongoCursor<T> cursor = iterateByFilter(dbName, clazz, listBson, null, batchSize);
+		if (cursor == null) {
+			return false;
+		}
+		try {
+			while (cursor.hasNext()) {
+				block.apply(cursor.next());
+			}
+		} catch (Exception e) {
+			logError("forEachByFilter", clazz, e);
+			return false;
+		} finally {
+			cursor.close();
+		}
+		return true;
+	}
+
 	/**
 	 * 分页基本 查询
 	 *
@@ -419,15 +1093,17 @@ public class MongoDBUtil implements InitializingBean {
 	 * @param <T>
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	@Deprecated //查询有bug  多个相同key会覆盖
 	public static <T extends BaseMongoEntity<?>> List<T> findByPage(String dbName, Class<?> clazz, int pageNo, int pageSize, Bson sortBy, List<Document> documentList) {
-		String tableName = getTableName(clazz);
 		List<T> returnList = null;
-		MongoCollection<Document> coll = null;
+		MongoCollection<T> coll = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
 			returnList = new ArrayList<T>();
-			coll = getCollection(dbName, tableName);
+			coll = getEntityCollection(dbName, clazz);
 			// Bson orderBy = new BasicDBObject("LogCreateDate", 1);
 			Map<String, Object> map = new HashMap<String, Object>();
 			for (Document d : documentList) {
@@ -437,16 +1113,17 @@ public class MongoDBUtil implements InitializingBean {
 			}
 
 
-			MongoCursor<Document> it = coll.find(new Document(map)).sort(sortBy).skip((pageNo - 1) * pageSize).limit(pageSize).iterator();
+			MongoCursor<T> it = find(coll, clazz, new Document(map)).sort(sortBy).skip((pageNo - 1) * pageSize).limit(pageSize).iterator();
 
 			while (it.hasNext()) {
-				Document value = it.next();
-				T entity = (T) clazz.newInstance();
-				returnList.add((T) entity.toEntity(value));
+				returnList.add(it.next());
 			}
 			it.close();
 		} catch (Exception e) {
+			logError("findByPage", clazz, e);
 			return null;
+		} finally {
+			permit.release();
 		}
 		return returnList;
 	}
@@ -460,21 +1137,27 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static long getCountByDocument(String dbName,Class<?> clazz, List<Document> documentList){
-		String tableName = getTableName(clazz);
 		MongoCollection<Document> coll = null;
 		long count=0;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return 0;
+		}
 		try {
-			coll = getCollection(dbName, tableName);
+			coll = getDocumentCollection(dbName, clazz);
 			Map<String, Object> map = new HashMap<String, Object>();
 			for (Document d : documentList) {
 				for (String key : d.keySet()) {
 					map.put(key, d.get(key));
 				}
 			}
-			count= coll.count(new Document(map));
+			count= count(coll, clazz, new Document(map));
 
 		} catch (Exception e) {
+			logError("getCountByDocument", clazz, e);
 			return 0;
+		} finally {
+			permit.release();
 		}
 		return count;
 	}
@@ -489,19 +1172,25 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static long getCountByFilter(String dbName,Class<?> clazz, List<Bson> listBson){
-		String tableName = getTableName(clazz);
 		MongoCollection<Document> coll = null;
 		long count=0;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return 0;
+		}
 		try {
-			coll = getCollection(dbName, tableName);
+			coll = getDocumentCollection(dbName, clazz);
 			if(listBson==null || listBson.isEmpty()){
-				count= coll.count();
+				count= count(coll, clazz, null);
 			}else {
-				count= coll.count(Filters.and(listBson));
+				count= count(coll, clazz, Filters.and(listBson));
 			}
 
 		} catch (Exception e) {
+			logError("getCountByFilter", clazz, e);
 			return 0;
+		} finally {
+			permit.release();
 		}
 		return count;
 	}
@@ -516,23 +1205,120 @@ public class MongoDBUtil implements InitializingBean {
 	 * @return
 	 */
 	public static long getCountByFilterOr(String dbName,Class<?> clazz, List<Bson> listBson){
-		String tableName = getTableName(clazz);
 		MongoCollection<Document> coll = null;
 		long count=0;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return 0;
+		}
 		try {
-			coll = getCollection(dbName, tableName);
+			coll = getDocumentCollection(dbName, clazz);
 			if(listBson==null || listBson.isEmpty()){
-				count= coll.count();
+				count= count(coll, clazz, null);
 			}else {
-				count= coll.count(Filters.or(listBson));
+				count= count(coll, clazz, Filters.or(listBson));
 			}
 
 		} catch (Exception e) {
+			logError("getCountByFilterOr", clazz, e);
 			return 0;
+		} finally {
+			permit.release();
 		}
 		return count;
 	}
 
+	/**
+	 * 根据条件获得数据总数
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter 为null时统计全部
+	 * @return 出错时返回0
+	 */
+	public static long getCount(String dbName, Class<?> clazz, Bson filter) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return 0;
+		}
+		try {
+			MongoCollection<Document> coll = getDocumentCollection(dbName, clazz);
+			return count(coll, clazz, filter);
+		} catch (Exception e) {
+			logError("getCount", clazz, e);
+			return 0;
+		} finally {
+			permit.release();
+		}
+	}
+
+	/**
+	 * 在线程池中异步统计总数，调用方先执行分页查询，再通过getCountResult取结果，两次查询并行执行<br>
+	 * approximate为true时优先使用mongos.countCacheSeconds内缓存的结果，总数允许有短暂的误差
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param filter      为null时统计全部
+	 * @param approximate 是否允许使用缓存的总数
+	 * @return
+	 */
+	public static Future<Long> submitCount(final String dbName, final Class<?> clazz, final Bson filter, final boolean approximate) {
+		final String cacheKey = approximate ? countCacheKey(dbName, clazz, filter) : null;
+		if (cacheKey != null) {
+			Long cached = countCache.getIfPresent(cacheKey);
+			if (cached != null) {
+				return Futures.immediateFuture(cached);
+			}
+		}
+		Callable<Long> task = MongoOptionsScope.propagate(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				long count = getCount(dbName, clazz, filter);
+				if (cacheKey != null) {
+					countCache.put(cacheKey, count);
+				}
+				return count;
+			}
+		});
+		ExecutorService executor = queryExecutor;
+		if (executor != null) {
+			try {
+				return executor.submit(task);
+			} catch (RejectedExecutionException e) {
+				logger.debug("count executor is shut down, count in caller thread");
+			}
+		}
+		try {
+			return Futures.immediateFuture(task.call());
+		} catch (Exception e) {
+			return Futures.immediateFuture(0L);
+		}
+	}
+
+	/**
+	 * 获取submitCount的结果，出错时返回0
+	 *
+	 * @param future
+	 * @return
+	 */
+	public static long getCountResult(Future<Long> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} catch (ExecutionException e) {
+			logger.error(e.getMessage(), e);
+			return 0;
+		}
+	}
+
+	private static String countCacheKey(String dbName, Class<?> clazz, Bson filter) {
+		String filterJson = filter == null ? "{}"
+				: filter.toBsonDocument(Document.class, getCodecRegistry()).toJson();
+		return dbName + "." + getTableName(clazz) + ":" + filterJson;
+	}
+
 	/**
 	 * 分页基本 查询
 	 *
@@ -544,30 +1330,47 @@ public class MongoDBUtil implements InitializingBean {
 	 * @param <T>
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> Page<T> searchPageByFilter(String dbName, Class<?> clazz, Page<T> page, Bson orderBy, List<Bson> listBson) {
-		String tableName = getTableName(clazz);
+		return searchPageByFilter(dbName, clazz, page, orderBy, listBson, null);
+	}
+
+	/**
+	 * 分页查询，只取projection中的字段
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param page
+	 * @param orderBy
+	 * @param listBson
+	 * @param projection 可以为null，见Projections和projectionOf
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> Page<T> searchPageByFilter(String dbName, Class<?> clazz, Page<T> page, Bson orderBy, List<Bson> listBson, Bson projection) {
 		List<T> returnList = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
 			returnList = new ArrayList<T>();
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
-			MongoCursor<Document> findIterable;
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			MongoCursor<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = coll.find(Filters.and(listBson)).sort(orderBy).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
+				findIterable = find(coll, clazz, Filters.and(listBson)).sort(orderBy).projection(projection).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
 			} else {
-				findIterable = coll.find().sort(orderBy).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
+				findIterable = find(coll, clazz, null).sort(orderBy).projection(projection).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
 			}
 			while (findIterable.hasNext()) {
-				Document value = findIterable.next();
-				T entity = (T) clazz.newInstance();
-				returnList.add((T) entity.toEntity(value));
+				returnList.add(findIterable.next());
 			}
 			findIterable.close();
 			page.setList(returnList);
 		} catch (Exception e) {
-			logger.error(e.getMessage(),e);
-			e.printStackTrace();
+			logError("searchPageByFilter", clazz, e);
 			return null;
+		} finally {
+			permit.release();
 		}
 		return page;
 	}
@@ -583,49 +1386,229 @@ public class MongoDBUtil implements InitializingBean {
 	 * @param <T>
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T extends BaseMongoEntity<?>> Page<T> searchPageByFilterOr(String dbName, Class<?> clazz, Page<T> page, Bson orderBy, List<Bson> listBson) {
-		String tableName = getTableName(clazz);
+		return searchPageByFilterOr(dbName, clazz, page, orderBy, listBson, null);
+	}
+
+	/**
+	 * 分页查询，只取projection中的字段
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param page
+	 * @param orderBy
+	 * @param listBson
+	 * @param projection 可以为null，见Projections和projectionOf
+	 * @param <T>
+	 * @return
+	 */
+	public static <T extends BaseMongoEntity<?>> Page<T> searchPageByFilterOr(String dbName, Class<?> clazz, Page<T> page, Bson orderBy, List<Bson> listBson, Bson projection) {
 		List<T> returnList = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
 		try {
 			returnList = new ArrayList<T>();
-			MongoCollection<Document> coll = getCollection(dbName, tableName);
-			MongoCursor<Document> findIterable;
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			MongoCursor<T> findIterable;
 			if (listBson != null && listBson.size() > 0) {
-				findIterable = coll.find(Filters.or(listBson)).sort(orderBy).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
+				findIterable = find(coll, clazz, Filters.or(listBson)).sort(orderBy).projection(projection).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
 			} else {
-				findIterable = coll.find().sort(orderBy).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
+				findIterable = find(coll, clazz, null).sort(orderBy).projection(projection).skip((page.getPageNo() - 1) * page.getPageSize()).limit(page.getPageSize()).iterator();
 			}
 			while (findIterable.hasNext()) {
-				Document value = findIterable.next();
-				T entity = (T) clazz.newInstance();
-				returnList.add((T) entity.toEntity(value));
+				returnList.add(findIterable.next());
 			}
 			findIterable.close();
 			page.setList(returnList);
 		} catch (Exception e) {
-			logger.error(e.getMessage(),e);
-			e.printStackTrace();
+			logError("searchPageByFilterOr", clazz, e);
 			return null;
+		} finally {
+			permit.release();
 		}
 		return page;
 	}
 
+	/**
+	 * 键集(seek)分页查询，按 orderKey + _id 排序，从page.continuation记录的位置往后取pageSize条，
+	 * 不使用skip，第N页与第1页的代价相同。查询后把下一页的续页标记写入page.nextContinuation<br>
+	 * orderKey必须是_id或实体(含父类)中的顶层字段，且建议有索引；排序字段为null的记录按mongo的规则排在正序的最前、倒序的最后
+	 *
+	 * @param dbName
+	 * @param clazz
+	 * @param page
+	 * @param orderKey 排序字段
+	 * @param filter   查询条件，可以为null
+	 * @param <T>
+	 * @return 出错时返回null
+	 * @throws IllegalArgumentException orderKey不是实体的字段，或续页标记无效、不是按该排序生成的
+	 */
+	public static <T extends BaseMongoEntity<?>> Page<T> searchPageBySeek(String dbName, Class<?> clazz, Page<T> page, String orderKey, Bson filter) {
+		int rule = page.getOrderByRule() >= 0 ? ASC : DESC;
+		if (!"_id".equals(orderKey) && !EntityConverter.forClass(clazz).hasProperty(orderKey)) {
+			throw new IllegalArgumentException("Keyset order key [" + orderKey + "] is not a top-level field of " + clazz.getName());
+		}
+		Bson query = filter;
+		if (StringUtils.isNotBlank(page.getContinuation())) {
+			Bson seek = KeysetToken.parse(page.getContinuation()).toFilter(orderKey, rule);
+			query = filter == null ? seek : Filters.and(filter, seek);
+		}
+		List<T> returnList = null;
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquire(clazz);
+		if (permit == null) {
+			return null;
+		}
+		try {
+			returnList = new ArrayList<T>();
+			MongoCollection<T> coll = getEntityCollection(dbName, clazz);
+			FindIterable<T> findIterable = find(coll, clazz, query);
+			findIterable.sort(new Document(orderKey, rule).append("_id", rule));
+			if (page.getPageSize() > 0) {
+				findIterable.limit(page.getPageSize());
+			}
+			MongoCursor<T> cursor = findIterable.iterator();
+			while (cursor.hasNext()) {
+				returnList.add(cursor.next());
+			}
+			cursor.close();
+			page.setList(returnList);
+			page.setNextContinuation(null);
+			if (page.getPageSize() > 0 && returnList.size() == page.getPageSize()) {
+				T last = returnList.get(returnList.size() - 1);
+				Object value = "_id".equals(orderKey) ? null : last.getMongoValue(orderKey);
+				page.setNextContinuation(new KeysetToken(orderKey, rule, value, last.getMongoId()).toString());
+			}
+		} catch (Exception e) {
+			logError("searchPageBySeek", clazz, e);
+			return null;
+		} finally {
+			permit.release();
+		}
+		return page;
+	}
+
+	/**
+	 * 聚合查询, 在mongo中完成分组统计, 只取回统计结果. 结果类型:
+	 * Document时原样返回; BaseMongoEntity子类时由EntityCodec直接解码;
+	 * 其他DTO按字段名调用setter, _id对应DTO的Id, _id为文档(多字段分组)时其中的字段也按字段名设置
+	 *
+	 * @param dbName
+	 * @param clazz        聚合的collection对应的实体
+	 * @param pipeline
+	 * @param resultClass
+	 * @param allowDiskUse 为null时使用服务端默认值, 大数据量的$group/$sort超过内存限制时需要为true
+	 * @param batchSize    小于等于0时使用mongos.batchSize
+	 * @param <R>
+	 * @return 出错时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R> List<R> aggregate(String dbName, Class<?> clazz, List<? extends Bson> pipeline, Class<R> resultClass, Boolean allowDiskUse, int batchSize) {
+		MongoConcurrencyLimiter.Permit permit = MongoConcurrencyLimiter.acquireLongRunning(clazz);
+		if (permit == null) {
+			return null;
+		}
+		try {
+			boolean decodeDirectly = resultClass == Document.class || BaseMongoEntity.class.isAssignableFrom(resultClass);
+			Class<?> decodeClass = decodeDirectly ? resultClass : Document.class;
+			AggregateIterable<?> iterable = getEntityCollection(dbName, clazz)
+					.aggregate(pipeline, decodeClass)
+					.allowDiskUse(allowDiskUse);
+			if (batchSize <= 0) {
+				batchSize = defaultBatchSize;
+			}
+			if (batchSize > 0) {
+				iterable.batchSize(batchSize);
+			}
+			long maxTimeMS = getMaxTimeMS(clazz);
+			if (maxTimeMS > 0) {
+				iterable.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+			}
+			List<R> list = new ArrayList<R>();
+			MongoCursor<?> cursor = iterable.iterator();
+			try {
+				if (decodeDirectly) {
+					while (cursor.hasNext()) {
+						list.add((R) cursor.next());
+					}
+				} else {
+					EntityConverter<R> converter = EntityConverter.forClass(resultClass);
+					while (cursor.hasNext()) {
+						list.add(toResult(converter, (Document) cursor.next()));
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+			return list;
+		} catch (Exception e) {
+			logError("aggregate", clazz, e);
+			return null;
+		} finally {
+			permit.release();
+		}
+	}
+
+	private static <R> R toResult(EntityConverter<R> converter, Document document) {
+		R result = converter.populate(converter.newInstance(), document);
+		Object id = document.get("_id");
+		if (id instanceof Document) {
+			converter.populate(result, (Document) id);
+		} else if (id != null) {
+			converter.setValue(result, "Id", id);
+		}
+		return result;
+	}
+
+	/**
+	 * 根据视图类的字段生成projection，只取视图类中声明的字段，结果按类缓存<br>
+	 * 视图类一般是实体的精简版，只声明列表页需要的字段
+	 *
+	 * @param viewClass
+	 * @return
+	 */
+	public static Bson projectionOf(Class<?> viewClass) {
+		Bson projection = projections.get(viewClass);
+		if (projection == null) {
+			projection = Projections.include(new ArrayList<String>(EntityConverter.forClass(viewClass).getKeys()));
+			projections.putIfAbsent(viewClass, projection);
+		}
+		return projection;
+	}
+
+	/**
+	 * 实体直接编解码的CodecRegistry, 同步和异步客户端共用
+	 *
+	 * @return
+	 */
+	static CodecRegistry createCodecRegistry() {
+		return CodecRegistries.fromRegistries(
+				CodecRegistries.fromProviders(new EntityCodecProvider()),
+				MongoClient.getDefaultCodecRegistry());
+	}
+
+	/**
+	 * 记录异常日志, 并计入对应collection和方法的错误数
+	 *
+	 * @param operation
+	 * @param clazz
+	 * @param e
+	 */
+	static void logError(String operation, Class<?> clazz, Throwable e) {
+		String tableName = clazz == null ? "" : getTableName(clazz);
+		MongoMetrics.recordError(tableName, operation);
+		logger.error(operation + " " + tableName + " failed: " + e.getMessage(), e);
+	}
+
 	/**
 	 * 根据注解 获得实体代表的表名
 	 * 
 	 * @param clazz
 	 * @return
 	 */
-	private static String getTableName(Class<?> clazz) {
-		String tableName = null;
-		if (clazz.isAnnotationPresent(Table.class)) {
-			Table table = (Table) clazz.getAnnotation(Table.class);
-			tableName = table.name();
-		} else {
-			tableName = clazz.getSimpleName();
-		}
-		return tableName;
+	static String getTableName(Class<?> clazz) {
+		return MongoEntityMetadata.forClass(clazz).getCollectionName();
 	}
 
 	/**
@@ -680,6 +1663,16 @@ public class MongoDBUtil implements InitializingBean {
 	 * 关闭Mongodb
 	 */
 	public static void close() {
+		// 先写完延迟插入队列中的记录
+		MongoWriteBehindBuffer.closeAll();
+		if (queryExecutor != null) {
+			queryExecutor.shutdown();
+			queryExecutor = null;
+		}
+		entityCollections.clear();
+		documentCollections.clear();
+		MongoQueryCache.invalidateAll();
+		AsyncMongoDBUtil.close();
 		if (mongoClient != null) {
 			mongoClient.close();
 			mongoClient = null;
@@ -701,6 +1694,40 @@ public class MongoDBUtil implements InitializingBean {
 
 	}
 
+	/**
+	 * 读取mongos.collections.[collection名].*配置的默认读写选项
+	 *
+	 * @return
+	 */
+	private Map<String, MongoOperationOptions> loadCollectionOptions() {
+		Map<String, Object> properties = new RelaxedPropertyResolver(env, "mongos.collections.").getSubProperties("");
+		Set<String> names = new HashSet<String>();
+		for (String key : properties.keySet()) {
+			int dot = key.lastIndexOf('.');
+			if (dot > 0) {
+				names.add(key.substring(0, dot));
+			}
+		}
+		Map<String, MongoOperationOptions> options = new HashMap<String, MongoOperationOptions>();
+		for (String name : names) {
+			String prefix = "mongos.collections." + name + ".";
+			MongoOperationOptions collectionOption = MongoOperationOptions.parse(env.getProperty(prefix + "readPreference"),
+					env.getProperty(prefix + "readConcern"), env.getProperty(prefix + "writeConcern"),
+					env.getProperty(prefix + "maxTimeMS"));
+			options.put(name, collectionOption);
+			logger.info("collection {} default options: {}", name, collectionOption);
+		}
+		return options;
+	}
+
+	/**
+	 * 容器关闭时写完延迟插入队列并关闭客户端
+	 */
+	@Override
+	public void destroy() throws Exception {
+		close();
+	}
+
 	@Override
 	public void afterPropertiesSet() throws Exception {
 
@@ -712,6 +1739,23 @@ public class MongoDBUtil implements InitializingBean {
 		String maxWaitTimeStr = env.getProperty("mongos.maxWaitTime");
 		String socketTimeoutStr = env.getProperty("mongos.socketTimeout");
 		String threadNumberStr = env.getProperty("mongos.threadNumber");
+		String batchSizeStr = env.getProperty("mongos.batchSize");
+		String queryThreadsStr = env.getProperty("mongos.queryThreads");
+		String countCacheSecondsStr = env.getProperty("mongos.countCacheSeconds");
+		String explainGuardStr = env.getProperty("mongos.explainGuard");
+		String metricsStr = env.getProperty("mongos.metrics");
+		String writeBehindCapacityStr = env.getProperty("mongos.writeBehind.capacity");
+		String writeBehindFlushSizeStr = env.getProperty("mongos.writeBehind.flushSize");
+		String writeBehindFlushMillisStr = env.getProperty("mongos.writeBehind.flushMillis");
+		String writeBehindOverflowStr = env.getProperty("mongos.writeBehind.overflow");
+		String slowQueryMillisStr = env.getProperty("mongos.slowQueryMillis");
+		String limiterEnabledStr = env.getProperty("mongos.limiter.enabled");
+		String queryCacheStr = env.getProperty("mongos.queryCache");
+		String limiterGroupsStr = env.getProperty("mongos.limiter.groups");
+		String limiterMinStr = env.getProperty("mongos.limiter.minLimit");
+		String limiterMaxStr = env.getProperty("mongos.limiter.maxLimit");
+		String limiterLatencyMillisStr = env.getProperty("mongos.limiter.latencyMillis");
+		String limiterMaxWaitMillisStr = env.getProperty("mongos.limiter.maxWaitMillis");
 
 		int connectionsPerHost = 150; //默认值
 		int connectTimeout = 15000;
@@ -734,6 +1778,65 @@ public class MongoDBUtil implements InitializingBean {
 		if(StringUtils.isNotBlank(threadNumberStr)){
 			threadNumber = Integer.parseInt(threadNumberStr);
 		}
+		if(StringUtils.isNotBlank(batchSizeStr)){
+			defaultBatchSize = Integer.parseInt(batchSizeStr);
+		}
+		int queryThreads = 20;
+		if(StringUtils.isNotBlank(queryThreadsStr)){
+			queryThreads = Integer.parseInt(queryThreadsStr);
+		}
+		if(StringUtils.isNotBlank(countCacheSecondsStr)){
+			countCache = CacheBuilder.newBuilder().maximumSize(10000)
+					.expireAfterWrite(Long.parseLong(countCacheSecondsStr), TimeUnit.SECONDS).build();
+		}
+		int writeBehindCapacity = 10000;
+		int writeBehindFlushSize = 500;
+		long writeBehindFlushMillis = 1000;
+		MongoWriteBehindBuffer.OverflowPolicy writeBehindOverflow = MongoWriteBehindBuffer.OverflowPolicy.DROP;
+		if(StringUtils.isNotBlank(writeBehindCapacityStr)){
+			writeBehindCapacity = Integer.parseInt(writeBehindCapacityStr);
+		}
+		if(StringUtils.isNotBlank(writeBehindFlushSizeStr)){
+			writeBehindFlushSize = Integer.parseInt(writeBehindFlushSizeStr);
+		}
+		if(StringUtils.isNotBlank(writeBehindFlushMillisStr)){
+			writeBehindFlushMillis = Long.parseLong(writeBehindFlushMillisStr);
+		}
+		if(StringUtils.isNotBlank(writeBehindOverflowStr)){
+			writeBehindOverflow = MongoWriteBehindBuffer.OverflowPolicy.valueOf(writeBehindOverflowStr.trim().toUpperCase());
+		}
+		MongoWriteBehindBuffer.configure(writeBehindCapacity, writeBehindFlushSize, writeBehindFlushMillis, writeBehindOverflow);
+		// 自适应并发限制, mongos.limiter.enabled=true时启用, 初始和最大都是连接池大小, 超过慢查询阈值时收缩
+		boolean limiterEnabled = "true".equalsIgnoreCase(limiterEnabledStr);
+		int limiterMin = 5;
+		int limiterMax = connectionsPerHost;
+		long limiterLatencyMillis = 500;
+		long limiterMaxWaitMillis = 0;
+		if(StringUtils.isNotBlank(limiterMinStr)){
+			limiterMin = Integer.parseInt(limiterMinStr);
+		}
+		if(StringUtils.isNotBlank(limiterMaxStr)){
+			limiterMax = Math.min(Integer.parseInt(limiterMaxStr), connectionsPerHost);
+		}
+		if(StringUtils.isNotBlank(limiterLatencyMillisStr)){
+			limiterLatencyMillis = Long.parseLong(limiterLatencyMillisStr);
+		} else if(StringUtils.isNotBlank(slowQueryMillisStr)){
+			limiterLatencyMillis = Long.parseLong(slowQueryMillisStr);
+		}
+		if(StringUtils.isNotBlank(limiterMaxWaitMillisStr)){
+			limiterMaxWaitMillis = Long.parseLong(limiterMaxWaitMillisStr);
+		}
+		MongoConcurrencyLimiter.configure(limiterEnabled, connectionsPerHost,
+				limiterMin, limiterMax, limiterLatencyMillis, limiterMaxWaitMillis, limiterGroupsStr);
+		// 有@MongoCache的实体的查询缓存, mongos.queryCache=false时关闭
+		MongoQueryCache.setEnabled(!"false".equalsIgnoreCase(queryCacheStr));
+		collectionOptions = loadCollectionOptions();
+		defaultOptions.clear();
+		// 队列满时由调用线程自己执行，不会丢任务
+		queryExecutor = new ThreadPoolExecutor(queryThreads, queryThreads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(1000),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mongo-query-%d").build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
 
 		List<ServerAddress> sdList = new ArrayList<ServerAddress>();
 
@@ -747,11 +1850,31 @@ public class MongoDBUtil implements InitializingBean {
 		options.connectTimeout(connectTimeout);// 连接超时，推荐>3000毫秒
 		options.maxWaitTime(maxWaitTime); //
 		options.socketTimeout(socketTimeout);// 套接字超时时间，0无限制
+		// 启用并发限制时每组最多占满连接池, 驱动的等待队列只需容纳各组同时用满的情况, 超出部分由限制器拒绝
+		if (limiterEnabled) {
+			threadNumber = Math.min(threadNumber, MongoConcurrencyLimiter.groupCount());
+		}
 		options.threadsAllowedToBlockForConnectionMultiplier(threadNumber);// 线程队列数，如果连接线程排满了队列就会抛出“Out
 		// of
 		// semaphores
 		// to get
 		// db”错误。
+		// 实体直接编解码, 不经过Document
+		options.codecRegistry(createCodecRegistry());
+		// 命令耗时统计和慢查询日志, mongos.metrics=false时关闭
+		if (!"false".equalsIgnoreCase(metricsStr)) {
+			long slowQueryMillis = 500;
+			if (StringUtils.isNotBlank(slowQueryMillisStr)) {
+				slowQueryMillis = Long.parseLong(slowQueryMillisStr);
+			}
+			options.addCommandListener(new MongoMetricsListener(slowQueryMillis));
+		} else {
+			MongoMetrics.setEnabled(false);
+		}
+		// 开发环境检查全表扫描的查询
+		if (Boolean.parseBoolean(explainGuardStr)) {
+			options.addCommandListener(new ExplainGuardListener());
+		}
 		options.build();
 		mongoClient = new MongoClient(sdList, options.build());
 
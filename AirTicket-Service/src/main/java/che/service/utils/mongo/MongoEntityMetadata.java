@@ -0,0 +1,113 @@
+package che.service.utils.mongo;
+
+import javax.persistence.Table;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Description: 实体类的元数据: collection名、编解码用的EntityConverter、读写选项等, 每个类只解析一次.
+ * MongoDBUtil按(dbName, 实体类)缓存的collection对象就是用这里的信息创建的
+ * <p>
+ *
+ * @param <T>
+ */
+public final class MongoEntityMetadata<T> {
+
+    private static final ConcurrentMap<Class<?>, MongoEntityMetadata<?>> METADATA = new ConcurrentHashMap<Class<?>, MongoEntityMetadata<?>>();
+
+    private final Class<T> entityClass;
+
+    private final String collectionName;
+
+    private final EntityConverter<T> converter;
+
+    /**
+     * 实体上@MongoOptions声明的读写选项
+     */
+    private final MongoOperationOptions options;
+
+    /**
+     * 实体上的@MongoCache, 没有时为null
+     */
+    private final MongoCache cache;
+
+    /**
+     * 实体上是否有@MongoTrackChanges
+     */
+    private final boolean trackChanges;
+
+    private MongoEntityMetadata(Class<T> entityClass) {
+        this.entityClass = entityClass;
+        Table table = entityClass.getAnnotation(Table.class);
+        this.collectionName = table != null ? table.name() : entityClass.getSimpleName();
+        this.converter = EntityConverter.forClass(entityClass);
+        this.options = MongoOperationOptions.of(entityClass);
+        this.cache = entityClass.getAnnotation(MongoCache.class);
+        this.trackChanges = entityClass.isAnnotationPresent(MongoTrackChanges.class);
+    }
+
+    /**
+     * 获取实体类的元数据, 每个类只解析一次
+     *
+     * @param entityClass
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> MongoEntityMetadata<T> forClass(Class<T> entityClass) {
+        MongoEntityMetadata<?> metadata = METADATA.get(entityClass);
+        if (metadata == null) {
+            metadata = new MongoEntityMetadata<T>(entityClass);
+            MongoEntityMetadata<?> exists = METADATA.putIfAbsent(entityClass, metadata);
+            if (exists != null) {
+                metadata = exists;
+            }
+        }
+        return (MongoEntityMetadata<T>) metadata;
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * collection名, 有@Table时取name, 否则为类名
+     *
+     * @return
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public EntityConverter<T> getConverter() {
+        return converter;
+    }
+
+    /**
+     * 实体上@MongoOptions声明的读写选项, 没有时为空选项
+     *
+     * @return
+     */
+    public MongoOperationOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * 实体上@MongoCache声明的查询缓存参数, 没有时为null
+     *
+     * @return
+     */
+    public MongoCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 从mongo读取时是否记录字段值, 见@MongoTrackChanges
+     *
+     * @return
+     */
+    public boolean isTrackChanges() {
+        return trackChanges;
+    }
+}
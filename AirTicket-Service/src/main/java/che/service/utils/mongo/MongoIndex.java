@@ -0,0 +1,46 @@
+package che.service.utils.mongo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Description: 在BaseMongoEntity子类上声明索引, 启动时由MongoIndexManager检查并在后台创建缺少的索引.
+ * 一个实体有多个索引时用@MongoIndexes
+ * <p>
+ * 例: @MongoIndex(keys = {"DepCity", "-CreateTime"}) 复合索引, 字段前加"-"表示倒序;
+ * &#64;MongoIndex(keys = "ExpireTime", expireAfterSeconds = 0) TTL索引
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MongoIndex {
+
+    /**
+     * 索引字段, 多个时为复合索引, 字段名前加"-"表示倒序
+     */
+    String[] keys();
+
+    /**
+     * 索引名, 为空时使用mongo默认的名字
+     */
+    String name() default "";
+
+    /**
+     * 是否唯一索引
+     */
+    boolean unique() default false;
+
+    /**
+     * 是否稀疏索引
+     */
+    boolean sparse() default false;
+
+    /**
+     * TTL索引的过期秒数, 小于0表示不是TTL索引
+     */
+    long expireAfterSeconds() default -1;
+}
@@ -0,0 +1,210 @@
+package che.service.utils.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Description: 按实体上的@MongoIndex/@MongoIndexes检查索引.
+ * 容器启动完成后扫描mongos.index.packages(默认che)下的实体, 对mongos.index.dbNames中的每个库在后台创建缺少的索引,
+ * 已有索引与声明不一致(unique/TTL不同)或库中有未声明的索引时只打警告, 不会删除或重建
+ * <p>
+ */
+@Component
+public class MongoIndexManager implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static Logger logger = LoggerFactory.getLogger(MongoIndexManager.class);
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    @Resource
+    private Environment env;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        // 父子容器都会触发, 只执行一次
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        String dbNames = env.getProperty("mongos.index.dbNames");
+        if (StringUtils.isBlank(dbNames)) {
+            return;
+        }
+        String packages = env.getProperty("mongos.index.packages", "che");
+        final List<Class<?>> entityClasses = scanEntities(packages);
+        ExecutorService executor = MongoDBUtil.getQueryExecutor();
+        for (final String dbName : StringUtils.split(dbNames, ",")) {
+            for (final Class<?> clazz : entityClasses) {
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        syncIndexes(dbName.trim(), clazz);
+                    }
+                };
+                if (executor == null) {
+                    task.run();
+                } else {
+                    executor.execute(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 检查并创建一个实体在指定库中声明的索引, 返回新建的索引个数
+     *
+     * @param dbName
+     * @param clazz
+     * @return
+     */
+    public static int syncIndexes(String dbName, Class<?> clazz) {
+        List<MongoIndex> declared = getDeclaredIndexes(clazz);
+        if (declared.isEmpty()) {
+            return 0;
+        }
+        String tableName = MongoDBUtil.getTableName(clazz);
+        int created = 0;
+        try {
+            MongoCollection<Document> coll = MongoDBUtil.getCollection(dbName, tableName);
+            Map<Document, Document> existing = new HashMap<Document, Document>();
+            for (Document index : coll.listIndexes()) {
+                existing.put(normalizeKeys((Document) index.get("key")), index);
+            }
+            Set<Document> declaredKeys = new LinkedHashSet<Document>();
+            for (MongoIndex index : declared) {
+                Document keys = toKeys(index);
+                declaredKeys.add(keys);
+                Document exists = existing.get(keys);
+                if (exists == null) {
+                    coll.createIndex(keys, toOptions(index));
+                    created++;
+                    logger.info("created index {} on {}.{}", keys.toJson(), dbName, tableName);
+                } else {
+                    checkDrift(dbName, tableName, index, exists);
+                }
+            }
+            for (Map.Entry<Document, Document> entry : existing.entrySet()) {
+                if (!declaredKeys.contains(entry.getKey()) && !"_id_".equals(entry.getValue().getString("name"))) {
+                    logger.warn("index {} on {}.{} is not declared by {}", entry.getValue().getString("name"), dbName,
+                            tableName, clazz.getSimpleName());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("sync indexes failed: " + dbName + "." + tableName, e);
+        }
+        return created;
+    }
+
+    /**
+     * 实体上声明的索引
+     *
+     * @param clazz
+     * @return
+     */
+    public static List<MongoIndex> getDeclaredIndexes(Class<?> clazz) {
+        List<MongoIndex> indexes = new ArrayList<MongoIndex>();
+        MongoIndex index = clazz.getAnnotation(MongoIndex.class);
+        if (index != null) {
+            indexes.add(index);
+        }
+        MongoIndexes group = clazz.getAnnotation(MongoIndexes.class);
+        if (group != null) {
+            for (MongoIndex item : group.value()) {
+                indexes.add(item);
+            }
+        }
+        return indexes;
+    }
+
+    private static List<Class<?>> scanEntities(String packages) {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(MongoIndex.class));
+        scanner.addIncludeFilter(new AnnotationTypeFilter(MongoIndexes.class));
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (String basePackage : StringUtils.split(packages, ",")) {
+            for (BeanDefinition candidate : scanner.findCandidateComponents(basePackage.trim())) {
+                try {
+                    Class<?> clazz = ClassUtils.forName(candidate.getBeanClassName(), ClassUtils.getDefaultClassLoader());
+                    if (BaseMongoEntity.class.isAssignableFrom(clazz)) {
+                        classes.add(clazz);
+                    }
+                } catch (ClassNotFoundException e) {
+                    logger.warn("could not load entity " + candidate.getBeanClassName(), e);
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static Document toKeys(MongoIndex index) {
+        Document keys = new Document();
+        for (String key : index.keys()) {
+            if (key.startsWith("-")) {
+                keys.append(key.substring(1), MongoDBUtil.DESC);
+            } else {
+                keys.append(key, MongoDBUtil.ASC);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 服务端返回的索引方向可能是1.0等浮点数, 统一为int后再与声明比较
+     */
+    private static Document normalizeKeys(Document keys) {
+        Document normalized = new Document();
+        for (Map.Entry<String, Object> entry : keys.entrySet()) {
+            Object direction = entry.getValue();
+            normalized.append(entry.getKey(), direction instanceof Number ? ((Number) direction).intValue() : direction);
+        }
+        return normalized;
+    }
+
+    private static IndexOptions toOptions(MongoIndex index) {
+        IndexOptions options = new IndexOptions().background(true).unique(index.unique()).sparse(index.sparse());
+        if (StringUtils.isNotBlank(index.name())) {
+            options.name(index.name());
+        }
+        if (index.expireAfterSeconds() >= 0) {
+            options.expireAfter(index.expireAfterSeconds(), TimeUnit.SECONDS);
+        }
+        return options;
+    }
+
+    private static void checkDrift(String dbName, String tableName, MongoIndex declared, Document exists) {
+        boolean unique = Boolean.TRUE.equals(exists.get("unique"));
+        if (unique != declared.unique()) {
+            logger.warn("index {} on {}.{} unique={}, declared unique={}", exists.getString("name"), dbName, tableName,
+                    unique, declared.unique());
+        }
+        Number expireAfter = (Number) exists.get("expireAfterSeconds");
+        long existsExpire = expireAfter == null ? -1 : expireAfter.longValue();
+        if (existsExpire != declared.expireAfterSeconds()) {
+            logger.warn("index {} on {}.{} expireAfterSeconds={}, declared expireAfterSeconds={}", exists.getString("name"),
+                    dbName, tableName, existsExpire, declared.expireAfterSeconds());
+        }
+    }
+}
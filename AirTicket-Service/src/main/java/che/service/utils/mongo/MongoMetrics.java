@@ -0,0 +1,111 @@
+package che.service.utils.mongo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Description: mongo操作统计的注册表, 按collection+操作名分别统计.
+ * 命令的耗时、返回文档数和服务端错误由MongoMetricsListener记录, 实体解码字节数由EntityCodec记录,
+ * MongoDBUtil中捕获的异常记在对应的方法名下. 通过MongoMetricsMBean(JMX)查看
+ * <p>
+ */
+public final class MongoMetrics {
+
+    private static final ConcurrentMap<String, MongoOperationStats> STATS = new ConcurrentHashMap<String, MongoOperationStats>();
+
+    private static volatile boolean enabled = true;
+
+    private MongoMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        MongoMetrics.enabled = enabled;
+    }
+
+    /**
+     * 获取collection上某个操作的统计, 不存在时创建
+     *
+     * @param collection
+     * @param operation
+     * @return
+     */
+    public static MongoOperationStats get(String collection, String operation) {
+        String key = collection + "#" + operation;
+        MongoOperationStats stats = STATS.get(key);
+        if (stats == null) {
+            stats = new MongoOperationStats(collection, operation);
+            MongoOperationStats exists = STATS.putIfAbsent(key, stats);
+            if (exists != null) {
+                stats = exists;
+            }
+        }
+        return stats;
+    }
+
+    static void recordLatency(String collection, String operation, long nanos) {
+        if (enabled) {
+            get(collection, operation).recordLatency(nanos);
+        }
+    }
+
+    static void recordDocuments(String collection, String operation, long n) {
+        if (enabled && n > 0) {
+            get(collection, operation).recordDocuments(n);
+        }
+    }
+
+    static void recordBytesDecoded(String collection, long n) {
+        if (enabled) {
+            get(collection, "decode").recordBytesDecoded(n);
+        }
+    }
+
+    static void recordError(String collection, String operation) {
+        if (enabled) {
+            get(collection, operation).recordError();
+        }
+    }
+
+    /**
+     * 所有统计, 按总耗时倒序, 排在前面的就是热点
+     *
+     * @return
+     */
+    public static List<MongoOperationStats> snapshot() {
+        List<MongoOperationStats> list = new ArrayList<MongoOperationStats>(STATS.values());
+        Collections.sort(list, new Comparator<MongoOperationStats>() {
+            @Override
+            public int compare(MongoOperationStats o1, MongoOperationStats o2) {
+                return Double.compare(o2.getMeanMillis() * o2.getCount(), o1.getMeanMillis() * o1.getCount());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * 所有统计转成Map列表, 供JMX和http接口输出
+     *
+     * @return
+     */
+    public static List<Map<String, Object>> snapshotAsMaps() {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+        for (MongoOperationStats stats : snapshot()) {
+            list.add(stats.toMap());
+        }
+        return list;
+    }
+
+    public static void reset() {
+        STATS.clear();
+    }
+}
@@ -0,0 +1,189 @@
+package che.service.utils.mongo;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Description: 记录每个命令的耗时、返回文档数和失败次数, 超过mongos.slowQueryMillis的命令写慢查询日志.
+ * 慢查询日志只记录查询形状(值替换为"?"), 不会把业务数据写进日志, 日志名为che.service.utils.mongo.SlowQuery
+ * <p>
+ */
+public class MongoMetricsListener implements CommandListener {
+
+    private static Logger slowLogger = LoggerFactory.getLogger("che.service.utils.mongo.SlowQuery");
+
+    private final long slowQueryNanos;
+
+    /**
+     * requestId -> 命令信息, 命令结束时移除. 驱动只保证commandStarted期间命令文档可用,
+     * 所以在开始时取出生成形状需要的部分(条件、排序等), 超过慢查询阈值时才生成形状字符串
+     */
+    private final ConcurrentMap<Integer, Started> inFlight = new ConcurrentHashMap<Integer, Started>();
+
+    public MongoMetricsListener(long slowQueryMillis) {
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        BsonDocument command = event.getCommand();
+        String commandName = event.getCommandName();
+        inFlight.put(event.getRequestId(), new Started(event.getDatabaseName(), collectionOf(commandName, command),
+                slowQueryNanos > 0 ? shapeSourceOf(commandName, command) : null));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        Started started = inFlight.remove(event.getRequestId());
+        if (started == null) {
+            return;
+        }
+        long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+        String commandName = event.getCommandName();
+        MongoMetrics.recordLatency(started.collection, commandName, nanos);
+        MongoMetrics.recordDocuments(started.collection, commandName, documentsOf(event.getResponse()));
+        logIfSlow(started, commandName, nanos, "");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        Started started = inFlight.remove(event.getRequestId());
+        if (started == null) {
+            return;
+        }
+        long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+        String commandName = event.getCommandName();
+        MongoMetrics.recordLatency(started.collection, commandName, nanos);
+        MongoMetrics.recordError(started.collection, commandName);
+        logIfSlow(started, commandName, nanos, " failed: " + event.getThrowable().getMessage());
+    }
+
+    private void logIfSlow(Started started, String commandName, long nanos, String suffix) {
+        if (slowQueryNanos > 0 && nanos >= slowQueryNanos) {
+            slowLogger.warn("{}ms {}.{} {} {}{}", TimeUnit.NANOSECONDS.toMillis(nanos), started.databaseName,
+                    started.collection, commandName, shapeOf(commandName, started.shapeSource), suffix);
+        }
+    }
+
+    private static String collectionOf(String commandName, BsonDocument command) {
+        if ("getMore".equals(commandName)) {
+            BsonValue collection = command.get("collection");
+            return collection != null && collection.isString() ? collection.asString().getValue() : "";
+        }
+        BsonValue collection = command.get(commandName);
+        return collection != null && collection.isString() ? collection.asString().getValue() : "$cmd";
+    }
+
+    /**
+     * 从命令中取出生成形状需要的部分: find取条件和排序, count/findAndModify/distinct取条件, aggregate取管道,
+     * update/delete取第一条语句的条件和语句数. 取出的值不再依赖驱动的缓冲区
+     */
+    private static BsonDocument shapeSourceOf(String commandName, BsonDocument command) {
+        BsonDocument source = new BsonDocument();
+        if ("find".equals(commandName)) {
+            putIfPresent(source, "filter", command.get("filter"));
+            putIfPresent(source, "sort", command.get("sort"));
+        } else if ("count".equals(commandName) || "findAndModify".equals(commandName) || "distinct".equals(commandName)) {
+            putIfPresent(source, "query", command.get("query"));
+        } else if ("aggregate".equals(commandName)) {
+            putIfPresent(source, "pipeline", command.get("pipeline"));
+        } else if ("update".equals(commandName) || "delete".equals(commandName)) {
+            BsonValue statements = command.get("update".equals(commandName) ? "updates" : "deletes");
+            if (statements != null && statements.isArray() && !statements.asArray().isEmpty()) {
+                BsonValue first = statements.asArray().get(0);
+                putIfPresent(source, "q", first.isDocument() ? first.asDocument().get("q") : null);
+                source.put("n", new BsonInt32(statements.asArray().size()));
+            }
+        }
+        return source;
+    }
+
+    private static void putIfPresent(BsonDocument document, String key, BsonValue value) {
+        if (value != null) {
+            document.put(key, value);
+        }
+    }
+
+    /**
+     * 命令的查询形状, 只在慢查询时生成
+     */
+    private static String shapeOf(String commandName, BsonDocument source) {
+        if (source == null) {
+            return "";
+        }
+        if ("find".equals(commandName)) {
+            return MongoQueryShape.of(getDocument(source, "filter"))
+                    + (source.isDocument("sort") ? " sort " + source.getDocument("sort").toJson() : "");
+        }
+        if ("count".equals(commandName) || "findAndModify".equals(commandName) || "distinct".equals(commandName)) {
+            return MongoQueryShape.of(getDocument(source, "query"));
+        }
+        if ("aggregate".equals(commandName) && source.isArray("pipeline")) {
+            StringBuilder shape = new StringBuilder("[");
+            for (BsonValue stage : source.getArray("pipeline")) {
+                if (shape.length() > 1) {
+                    shape.append(", ");
+                }
+                shape.append(stage.isDocument() ? MongoQueryShape.of(stage.asDocument()) : "?");
+            }
+            return shape.append(']').toString();
+        }
+        if (("update".equals(commandName) || "delete".equals(commandName)) && source.containsKey("n")) {
+            String shape = MongoQueryShape.of(getDocument(source, "q"));
+            int statements = source.getInt32("n").getValue();
+            return statements > 1 ? shape + " x" + statements : shape;
+        }
+        return "";
+    }
+
+    private static BsonDocument getDocument(BsonDocument document, String key) {
+        BsonValue value = document.get(key);
+        return value != null && value.isDocument() ? value.asDocument() : null;
+    }
+
+    /**
+     * 返回的文档数: 游标命令取本批文档数, findAndModify有返回值时为1
+     */
+    private static long documentsOf(BsonDocument response) {
+        if (response == null) {
+            return 0;
+        }
+        BsonValue cursor = response.get("cursor");
+        if (cursor != null && cursor.isDocument()) {
+            BsonValue batch = cursor.asDocument().get("firstBatch");
+            if (batch == null) {
+                batch = cursor.asDocument().get("nextBatch");
+            }
+            return batch != null && batch.isArray() ? batch.asArray().size() : 0;
+        }
+        BsonValue value = response.get("value");
+        return value != null && value.isDocument() ? 1 : 0;
+    }
+
+    private static final class Started {
+
+        private final String databaseName;
+
+        private final String collection;
+
+        private final BsonDocument shapeSource;
+
+        private Started(String databaseName, String collection, BsonDocument shapeSource) {
+            this.databaseName = databaseName;
+            this.collection = collection;
+            this.shapeSource = shapeSource;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package che.service.utils.mongo;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Description: 通过JMX查看mongo操作统计, 对象名che:type=MongoMetrics, 由spring boot的JMX自动导出
+ * <p>
+ */
+@Component
+@ManagedResource(objectName = "che:type=MongoMetrics", description = "mongo operation metrics")
+public class MongoMetricsMBean {
+
+    /**
+     * 每个collection+操作一行, 按总耗时倒序
+     *
+     * @return
+     */
+    @ManagedAttribute(description = "operation stats ordered by total time")
+    public String[] getOperations() {
+        return top(Integer.MAX_VALUE);
+    }
+
+    @ManagedOperation(description = "top n operations by total time")
+    public String[] top(int n) {
+        List<MongoOperationStats> list = MongoMetrics.snapshot();
+        int size = Math.min(n, list.size());
+        String[] lines = new String[size];
+        for (int i = 0; i < size; i++) {
+            MongoOperationStats stats = list.get(i);
+            lines[i] = String.format("%s %s count=%d errors=%d docs=%d bytes=%d mean=%.2fms p95=%.0fms p99=%.0fms max=%.2fms",
+                    stats.getCollection(), stats.getOperation(), stats.getCount(), stats.getErrors(),
+                    stats.getDocuments(), stats.getBytesDecoded(), stats.getMeanMillis(),
+                    stats.getPercentileMillis(95), stats.getPercentileMillis(99), stats.getMaxMillis());
+        }
+        return lines;
+    }
+
+    /**
+     * 每个并发限制分组一行: 当前限制, 执行中, 拒绝数, 收缩次数
+     *
+     * @return
+     */
+    @ManagedAttribute(description = "concurrency limit per collection group")
+    public String[] getLimiters() {
+        List<Map<String, Object>> list = MongoConcurrencyLimiter.snapshotAsMaps();
+        String[] lines = new String[list.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Map<String, Object> map = list.get(i);
+            lines[i] = String.format("%s limit=%s inflight=%s rejected=%s decreases=%s", map.get("group"),
+                    map.get("limit"), map.get("inflight"), map.get("rejected"), map.get("decreases"));
+        }
+        return lines;
+    }
+
+    @ManagedAttribute(description = "whether metrics are recorded")
+    public boolean isEnabled() {
+        return MongoMetrics.isEnabled();
+    }
+
+    @ManagedAttribute(description = "whether metrics are recorded")
+    public void setEnabled(boolean enabled) {
+        MongoMetrics.setEnabled(enabled);
+    }
+
+    @ManagedOperation(description = "clear all stats")
+    public void reset() {
+        MongoMetrics.reset();
+    }
+}
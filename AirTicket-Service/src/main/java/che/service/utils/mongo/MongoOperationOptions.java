@@ -0,0 +1,174 @@
+package che.service.utils.mongo;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * <p>
+ * Description: 读写选项: read preference、read concern、write concern和maxTimeMS, 为null的项不覆盖默认值.
+ * 不可变, 每个设置方法返回新对象
+ * <p>
+ * 例: MongoOperationOptions.create().readPreference(ReadPreference.secondaryPreferred()).maxTimeMS(500)
+ */
+public final class MongoOperationOptions {
+
+    private static final MongoOperationOptions EMPTY = new MongoOperationOptions(null, null, null, null);
+
+    private final ReadPreference readPreference;
+
+    private final ReadConcern readConcern;
+
+    private final WriteConcern writeConcern;
+
+    private final Long maxTimeMS;
+
+    private MongoOperationOptions(ReadPreference readPreference, ReadConcern readConcern, WriteConcern writeConcern, Long maxTimeMS) {
+        this.readPreference = readPreference;
+        this.readConcern = readConcern;
+        this.writeConcern = writeConcern;
+        this.maxTimeMS = maxTimeMS;
+    }
+
+    public static MongoOperationOptions create() {
+        return EMPTY;
+    }
+
+    /**
+     * 从字符串解析, 为空的项不设置
+     *
+     * @param readPreference 如secondaryPreferred
+     * @param readConcern    如majority
+     * @param writeConcern   如majority, w1
+     * @param maxTimeMS
+     * @return
+     */
+    public static MongoOperationOptions parse(String readPreference, String readConcern, String writeConcern, String maxTimeMS) {
+        return new MongoOperationOptions(
+                StringUtils.isBlank(readPreference) ? null : ReadPreference.valueOf(readPreference.trim()),
+                StringUtils.isBlank(readConcern) ? null : new ReadConcern(ReadConcernLevel.fromString(readConcern.trim())),
+                StringUtils.isBlank(writeConcern) ? null : parseWriteConcern(writeConcern.trim()),
+                StringUtils.isBlank(maxTimeMS) ? null : Long.valueOf(maxTimeMS.trim()));
+    }
+
+    /**
+     * 实体上@MongoOptions声明的选项, 没有时为空选项
+     *
+     * @param clazz
+     * @return
+     */
+    public static MongoOperationOptions of(Class<?> clazz) {
+        MongoOptions options = clazz.getAnnotation(MongoOptions.class);
+        if (options == null) {
+            return EMPTY;
+        }
+        return parse(options.readPreference(), options.readConcern(), options.writeConcern(),
+                options.maxTimeMS() > 0 ? String.valueOf(options.maxTimeMS()) : null);
+    }
+
+    public MongoOperationOptions readPreference(ReadPreference readPreference) {
+        return new MongoOperationOptions(readPreference, readConcern, writeConcern, maxTimeMS);
+    }
+
+    public MongoOperationOptions readConcern(ReadConcern readConcern) {
+        return new MongoOperationOptions(readPreference, readConcern, writeConcern, maxTimeMS);
+    }
+
+    public MongoOperationOptions writeConcern(WriteConcern writeConcern) {
+        return new MongoOperationOptions(readPreference, readConcern, writeConcern, maxTimeMS);
+    }
+
+    public MongoOperationOptions maxTimeMS(long maxTimeMS) {
+        return new MongoOperationOptions(readPreference, readConcern, writeConcern, maxTimeMS);
+    }
+
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+
+    public ReadConcern getReadConcern() {
+        return readConcern;
+    }
+
+    public WriteConcern getWriteConcern() {
+        return writeConcern;
+    }
+
+    /**
+     * @return 没有设置时为null
+     */
+    public Long getMaxTimeMS() {
+        return maxTimeMS;
+    }
+
+    public boolean isEmpty() {
+        return readPreference == null && readConcern == null && writeConcern == null && maxTimeMS == null;
+    }
+
+    /**
+     * 本对象中设置了的项优先, 没设置的取defaults
+     *
+     * @param defaults
+     * @return
+     */
+    public MongoOperationOptions withDefaults(MongoOperationOptions defaults) {
+        if (defaults == null || defaults.isEmpty()) {
+            return this;
+        }
+        return new MongoOperationOptions(
+                readPreference != null ? readPreference : defaults.readPreference,
+                readConcern != null ? readConcern : defaults.readConcern,
+                writeConcern != null ? writeConcern : defaults.writeConcern,
+                maxTimeMS != null ? maxTimeMS : defaults.maxTimeMS);
+    }
+
+    /**
+     * 把读写选项设置到collection上, maxTimeMS需要在每次查询时设置
+     *
+     * @param collection
+     * @param <T>
+     * @return
+     */
+    public <T> MongoCollection<T> apply(MongoCollection<T> collection) {
+        if (readPreference != null) {
+            collection = collection.withReadPreference(readPreference);
+        }
+        if (readConcern != null) {
+            collection = collection.withReadConcern(readConcern);
+        }
+        if (writeConcern != null) {
+            collection = collection.withWriteConcern(writeConcern);
+        }
+        return collection;
+    }
+
+    public <T> com.mongodb.async.client.MongoCollection<T> apply(com.mongodb.async.client.MongoCollection<T> collection) {
+        if (readPreference != null) {
+            collection = collection.withReadPreference(readPreference);
+        }
+        if (readConcern != null) {
+            collection = collection.withReadConcern(readConcern);
+        }
+        if (writeConcern != null) {
+            collection = collection.withWriteConcern(writeConcern);
+        }
+        return collection;
+    }
+
+    private static WriteConcern parseWriteConcern(String name) {
+        WriteConcern writeConcern = WriteConcern.valueOf(name);
+        if (writeConcern == null) {
+            throw new IllegalArgumentException("unknown write concern: " + name);
+        }
+        return writeConcern;
+    }
+
+    @Override
+    public String toString() {
+        return "MongoOperationOptions{readPreference=" + readPreference + ", readConcern=" + (readConcern == null ? null : readConcern.asDocument().toJson())
+                + ", writeConcern=" + writeConcern + ", maxTimeMS=" + maxTimeMS + "}";
+    }
+}
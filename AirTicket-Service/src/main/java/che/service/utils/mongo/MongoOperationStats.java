@@ -0,0 +1,156 @@
+package che.service.utils.mongo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Description: 一个collection上一种操作的统计: 次数、错误数、返回文档数、解码字节数和耗时直方图.
+ * 直方图按固定的毫秒区间计数, 百分位取所在区间的上界, 足够定位p99毛刺来自哪个collection和操作
+ * <p>
+ */
+public class MongoOperationStats {
+
+    /**
+     * 直方图各区间的上界(毫秒), 最后一个区间为大于10000
+     */
+    static final long[] BUCKET_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final String collection;
+
+    private final String operation;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong documents = new AtomicLong();
+
+    private final AtomicLong bytesDecoded = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+
+    MongoOperationStats(String collection, String operation) {
+        this.collection = collection;
+        this.operation = operation;
+    }
+
+    void recordLatency(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        buckets.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+    void recordDocuments(long n) {
+        documents.addAndGet(n);
+    }
+
+    void recordBytesDecoded(long n) {
+        bytesDecoded.addAndGet(n);
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1000000.0 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * 耗时的百分位(毫秒), 返回所在区间的上界, 落在最后一个区间时返回最大耗时
+     *
+     * @param percentile 0-100
+     * @return
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return BUCKET_MILLIS[i];
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * 转成Map, 供JMX和http接口输出
+     *
+     * @return
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("collection", collection);
+        map.put("operation", operation);
+        map.put("count", getCount());
+        map.put("errors", getErrors());
+        map.put("documents", getDocuments());
+        map.put("bytesDecoded", getBytesDecoded());
+        map.put("meanMillis", getMeanMillis());
+        map.put("p50Millis", getPercentileMillis(50));
+        map.put("p95Millis", getPercentileMillis(95));
+        map.put("p99Millis", getPercentileMillis(99));
+        map.put("maxMillis", getMaxMillis());
+        return map;
+    }
+
+    private static int bucketOf(long millis) {
+        for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+            if (millis < BUCKET_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_MILLIS.length;
+    }
+}
@@ -0,0 +1,41 @@
+package che.service.utils.mongo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Description: 实体默认的读写选项, 为空表示使用客户端默认值.
+ * 可以被配置mongos.collections.[collection名].readPreference/readConcern/writeConcern/maxTimeMS覆盖,
+ * 单次调用可以用MongoOptionsScope再覆盖
+ * <p>
+ * 例: @MongoOptions(readPreference = "secondaryPreferred", maxTimeMS = 2000) 航班搜索走从库, 单次查询最多2秒
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MongoOptions {
+
+    /**
+     * primary, primaryPreferred, secondary, secondaryPreferred, nearest
+     */
+    String readPreference() default "";
+
+    /**
+     * local, majority, linearizable
+     */
+    String readConcern() default "";
+
+    /**
+     * WriteConcern中的常量名, 如majority, w1, acknowledged, unacknowledged
+     */
+    String writeConcern() default "";
+
+    /**
+     * 查询和count的最长执行时间, 0表示不限制
+     */
+    long maxTimeMS() default 0;
+}
@@ -0,0 +1,81 @@
+package che.service.utils.mongo;
+
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * Description: 单次调用的读写选项, 在当前线程内覆盖实体和配置的默认值, 用try-with-resources关闭.
+ * MongoDBUtil交给查询线程池的count、分批查询会带上发起线程的选项
+ * <p>
+ * 例:
+ * <pre>
+ * try (MongoOptionsScope ignored = flightDao.withOptions(MongoOperationOptions.create().maxTimeMS(300))) {
+ *     flightDao.searchByFilter(dbName, filters, page);
+ * }
+ * </pre>
+ */
+public final class MongoOptionsScope implements AutoCloseable {
+
+    private static final ThreadLocal<MongoOperationOptions> CURRENT = new ThreadLocal<MongoOperationOptions>();
+
+    private final MongoOperationOptions previous;
+
+    private MongoOptionsScope(MongoOperationOptions previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * 开始一个作用域, 嵌套时内层设置了的项优先
+     *
+     * @param options
+     * @return
+     */
+    public static MongoOptionsScope open(MongoOperationOptions options) {
+        MongoOperationOptions previous = CURRENT.get();
+        CURRENT.set(options == null ? previous : options.withDefaults(previous));
+        return new MongoOptionsScope(previous);
+    }
+
+    /**
+     * 当前线程的选项, 没有时为null
+     *
+     * @return
+     */
+    public static MongoOperationOptions current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 包装交给其他线程执行的任务, 执行时使用当前线程的选项
+     *
+     * @param task
+     * @param <V>
+     * @return
+     */
+    static <V> Callable<V> propagate(final Callable<V> task) {
+        final MongoOperationOptions options = CURRENT.get();
+        if (options == null) {
+            return task;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                MongoOptionsScope scope = open(options);
+                try {
+                    return task.call();
+                } finally {
+                    scope.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package che.service.utils.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Description: 绑定了参数值的MongoQueryTemplate, 本身就是条件, 可以直接传给Filters和MongoDBUtil.
+ * 排序和投影来自模板, 见IMongodbDao.find(dbName, MongoQuery)
+ * <p>
+ *
+ * @param <T>
+ */
+public final class MongoQuery<T> implements Bson {
+
+    private final MongoQueryTemplate<T> template;
+
+    private final Document filter;
+
+    private final Object[] values;
+
+    MongoQuery(MongoQueryTemplate<T> template, Document filter, Object[] values) {
+        this.template = template;
+        this.filter = filter;
+        this.values = values;
+    }
+
+    public MongoQueryTemplate<T> getTemplate() {
+        return template;
+    }
+
+    public Document getFilter() {
+        return filter;
+    }
+
+    public Bson getSort() {
+        return template.getSort();
+    }
+
+    public Bson getProjection() {
+        return template.getProjection();
+    }
+
+    /**
+     * 查询缓存的key: 模板id加参数值, 形状、排序和投影不再重复序列化
+     *
+     * @param codecRegistry
+     * @return
+     */
+    String cacheKey(CodecRegistry codecRegistry) {
+        return template.getId() + "|" + new Document("values", Arrays.asList(values))
+                .toBsonDocument(Document.class, codecRegistry).toJson();
+    }
+
+    @Override
+    public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry codecRegistry) {
+        return filter.toBsonDocument(documentClass, codecRegistry);
+    }
+
+    @Override
+    public String toString() {
+        return template.getName() + " " + Arrays.toString(values);
+    }
+}
@@ -0,0 +1,209 @@
+package che.service.utils.mongo;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Description: MongodbDao的查询结果缓存, 只对有@MongoCache的实体生效.
+ * 每个(dbName, collection)一个有界的Guava Cache, 按最近最少使用淘汰, 写入后ttlSeconds过期,
+ * key为(查询方法, 条件, 排序, 投影)序列化后的json, MongoQuery只序列化参数值, 形状用模板id.
+ * MongoDBUtil的写操作会使整个collection的缓存失效.
+ * 缓存中保存的是实体的副本, 读取时再复制一份, 调用方修改返回的实体不影响缓存
+ * <p>
+ * mongos.queryCache=false时全部关闭
+ */
+public final class MongoQueryCache {
+
+    private static final ConcurrentMap<String, Region> REGIONS = new ConcurrentHashMap<String, Region>();
+
+    private static volatile boolean enabled = true;
+
+    private MongoQueryCache() {
+    }
+
+    static void setEnabled(boolean enabled) {
+        MongoQueryCache.enabled = enabled;
+        if (!enabled) {
+            REGIONS.clear();
+        }
+    }
+
+    /**
+     * 实体类是否开启了查询缓存
+     *
+     * @param clazz
+     * @return
+     */
+    public static boolean isCached(Class<?> clazz) {
+        return enabled && MongoEntityMetadata.forClass(clazz).getCache() != null;
+    }
+
+    /**
+     * 从缓存读取查询结果, 没有时调用loader查询并放入缓存, 结果为null(出错)时不缓存.
+     * 实体类没有@MongoCache时直接调用loader
+     *
+     * @param dbName
+     * @param clazz
+     * @param method     查询方式, 区分同样条件下返回不同结果的查询, 如find和findOne
+     * @param filter     可以为null
+     * @param orderBy    可以为null
+     * @param projection 可以为null
+     * @param loader
+     * @param <V>        实体或实体列表
+     * @return
+     */
+    public static <V> V get(String dbName, Class<?> clazz, String method, Bson filter, Bson orderBy, Bson projection,
+                            Callable<V> loader) {
+        if (!isCached(clazz)) {
+            return call(loader);
+        }
+        Region region = regionFor(dbName, clazz);
+        String key = keyOf(method, filter, orderBy, projection);
+        Object cached = region.cache.getIfPresent(key);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        long generation = region.generation.get();
+        V value = call(loader);
+        // 查询期间有写入时不放入缓存, 避免缓存写入前的旧数据
+        if (value != null && region.generation.get() == generation) {
+            region.cache.put(key, copyOf(value));
+        }
+        return value;
+    }
+
+    /**
+     * 使(dbName, 实体类)的所有缓存失效, 由MongoDBUtil的写操作调用
+     *
+     * @param dbName
+     * @param clazz
+     */
+    public static void invalidate(String dbName, Class<?> clazz) {
+        if (!isCached(clazz)) {
+            return;
+        }
+        Region region = REGIONS.get(dbName + "." + MongoDBUtil.getTableName(clazz));
+        if (region != null) {
+            region.generation.incrementAndGet();
+            region.cache.invalidateAll();
+        }
+    }
+
+    public static void invalidateAll() {
+        for (Region region : REGIONS.values()) {
+            region.generation.incrementAndGet();
+            region.cache.invalidateAll();
+        }
+    }
+
+    /**
+     * 每个(dbName, collection)一行: 缓存条数, 命中数, 未命中数, 命中率, 淘汰数
+     *
+     * @return
+     */
+    public static List<Map<String, Object>> snapshotAsMaps() {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<String, Region> entry : REGIONS.entrySet()) {
+            CacheStats stats = entry.getValue().cache.stats();
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("collection", entry.getKey());
+            map.put("size", entry.getValue().cache.size());
+            map.put("hits", stats.hitCount());
+            map.put("misses", stats.missCount());
+            map.put("hitRate", stats.hitRate());
+            map.put("evictions", stats.evictionCount());
+            map.put("invalidations", entry.getValue().generation.get());
+            list.add(map);
+        }
+        return list;
+    }
+
+    private static Region regionFor(String dbName, Class<?> clazz) {
+        String name = dbName + "." + MongoDBUtil.getTableName(clazz);
+        Region region = REGIONS.get(name);
+        if (region == null) {
+            MongoCache spec = MongoEntityMetadata.forClass(clazz).getCache();
+            region = new Region(CacheBuilder.newBuilder().maximumSize(spec.maxSize())
+                    .expireAfterWrite(spec.ttlSeconds(), TimeUnit.SECONDS).recordStats().<String, Object>build());
+            Region exists = REGIONS.putIfAbsent(name, region);
+            if (exists != null) {
+                region = exists;
+            }
+        }
+        return region;
+    }
+
+    private static String keyOf(String method, Bson filter, Bson orderBy, Bson projection) {
+        if (filter instanceof MongoQuery) {
+            MongoQuery<?> query = (MongoQuery<?>) filter;
+            // 排序和投影来自模板时已经包含在模板id中
+            if (orderBy == query.getSort() && projection == query.getProjection()) {
+                return method + "|" + query.cacheKey(MongoDBUtil.getCodecRegistry());
+            }
+        }
+        return method + "|" + toJson(filter) + "|" + toJson(orderBy) + "|" + toJson(projection);
+    }
+
+    private static String toJson(Bson bson) {
+        if (bson == null) {
+            return "";
+        }
+        return bson.toBsonDocument(Document.class, MongoDBUtil.getCodecRegistry()).toJson();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> V copyOf(Object value) {
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<Object>(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                copy.add(copyOf(item));
+            }
+            return (V) copy;
+        }
+        if (value instanceof BaseMongoEntity) {
+            BaseMongoEntity<?> entity = (BaseMongoEntity<?>) value;
+            BaseMongoEntity<?> copy = (BaseMongoEntity<?>) EntityConverter.forClass((Class) value.getClass()).copy(value);
+            copy.setMongoId(entity.getMongoId());
+            copy.onLoaded();
+            return (V) copy;
+        }
+        return (V) value;
+    }
+
+    private static <V> V call(Callable<V> loader) {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static final class Region {
+
+        private final Cache<String, Object> cache;
+
+        /**
+         * 每次失效加一, 查询前后不一致时说明查询期间有写入
+         */
+        private final AtomicLong generation = new AtomicLong();
+
+        private Region(Cache<String, Object> cache) {
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package che.service.utils.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Description: 查询的形状, 把条件中的值都替换为"?", 只保留字段名和操作符.
+ * 用于按查询形状去重、统计和记录日志, 不会把手机号、证件号等值写进日志
+ * <p>
+ */
+public final class MongoQueryShape {
+
+    private static final BsonString PLACEHOLDER = new BsonString("?");
+
+    private MongoQueryShape() {
+    }
+
+    /**
+     * 条件的形状, filter为null时返回"{}"
+     *
+     * @param filter
+     * @return
+     */
+    public static String of(Bson filter) {
+        if (filter == null) {
+            return "{}";
+        }
+        return of(filter.toBsonDocument(Document.class, MongoDBUtil.getCodecRegistry()));
+    }
+
+    public static String of(BsonDocument filter) {
+        if (filter == null) {
+            return "{}";
+        }
+        return redact(filter).toJson();
+    }
+
+    private static BsonDocument redact(BsonDocument document) {
+        BsonDocument shape = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+            shape.put(entry.getKey(), redact(entry.getKey(), entry.getValue()));
+        }
+        return shape;
+    }
+
+    private static BsonValue redact(String key, BsonValue value) {
+        if (value.isDocument()) {
+            return redact(value.asDocument());
+        }
+        if (value.isArray() && ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key))) {
+            BsonArray array = new BsonArray();
+            for (BsonValue item : value.asArray()) {
+                array.add(item.isDocument() ? redact(item.asDocument()) : PLACEHOLDER);
+            }
+            return array;
+        }
+        return PLACEHOLDER;
+    }
+}
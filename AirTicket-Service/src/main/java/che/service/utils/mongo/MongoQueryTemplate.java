@@ -0,0 +1,354 @@
+package che.service.utils.mongo;
+
+import com.mongodb.client.model.Projections;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Description: 预编译的查询模板, 代替临时拼的Map和List&lt;Bson&gt;.
+ * 构建时按实体元数据校验字段名, 把条件按字段合并(同一字段的$gte/$lte放在一个子文档里, 不会互相覆盖),
+ * 排序和投影只渲染一次; 每次查询只用bind按声明顺序绑定参数值.
+ * 相同实体和形状的模板只编译一次, 模板的id(形状)同时作为MongoMetrics和MongoQueryCache的key
+ * <p>
+ * 例:
+ * <pre>
+ * private static final MongoQueryTemplate&lt;Fare&gt; BY_ROUTE = MongoQueryTemplate.builder(Fare.class)
+ *         .eq("DepCity").eq("ArrCity").gte("DepDate").lte("DepDate").sort("Price", MongoDBUtil.ASC).build();
+ *
+ * List&lt;Fare&gt; fares = fareDao.find(dbName, BY_ROUTE.bind("PEK", "SHA", from, to));
+ * </pre>
+ *
+ * @param <T>
+ */
+public final class MongoQueryTemplate<T> {
+
+    private static final ConcurrentMap<String, MongoQueryTemplate<?>> TEMPLATES = new ConcurrentHashMap<String, MongoQueryTemplate<?>>();
+
+    private final Class<T> entityClass;
+
+    private final String id;
+
+    private final String name;
+
+    /**
+     * 按字段分组的条件, 顺序与首次声明一致
+     */
+    private final FieldConditions[] fields;
+
+    private final int parameterCount;
+
+    private final Bson sort;
+
+    private final Bson projection;
+
+    private MongoQueryTemplate(Builder<T> builder, String id) {
+        this.entityClass = builder.entityClass;
+        this.id = id;
+        this.name = builder.name != null ? builder.name : id;
+        this.fields = builder.fields.values().toArray(new FieldConditions[builder.fields.size()]);
+        this.parameterCount = builder.parameterCount;
+        this.sort = builder.sort.isEmpty() ? null : BsonDocument.parse(builder.sort.toJson());
+        this.projection = builder.projection;
+    }
+
+    public static <T extends BaseMongoEntity<?>> Builder<T> builder(Class<T> entityClass) {
+        return new Builder<T>(entityClass);
+    }
+
+    /**
+     * 按声明顺序绑定参数值
+     *
+     * @param values
+     * @return
+     */
+    public MongoQuery<T> bind(Object... values) {
+        if (values.length != parameterCount) {
+            throw new IllegalArgumentException("query " + name + " expects " + parameterCount + " parameters but got " + values.length);
+        }
+        Document filter = new Document();
+        for (FieldConditions field : fields) {
+            if (field.operators == null) {
+                filter.put(field.field, values[field.eqIndex]);
+            } else {
+                Document operators = new Document();
+                for (Condition condition : field.operators) {
+                    operators.put(condition.operator, condition.index >= 0 ? values[condition.index] : condition.constant);
+                }
+                filter.put(field.field, operators);
+            }
+        }
+        return new MongoQuery<T>(this, filter, values);
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * 模板的形状, 参数值用?加参数下标代替(如?0), 包括排序和投影, 相同形状的模板是同一个实例.
+     * 条件按字段合并后顺序可能与声明顺序不同, 下标保证声明顺序不同的模板不会共用
+     *
+     * @return
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 统计用的名字, 没有指定时为id
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return 没有排序时为null
+     */
+    public Bson getSort() {
+        return sort;
+    }
+
+    /**
+     * @return 没有投影时为null
+     */
+    public Bson getProjection() {
+        return projection;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 一个条件: 操作符与参数下标, 下标为-1时使用常量
+     */
+    private static final class Condition {
+
+        private final String operator;
+
+        private final int index;
+
+        private final Object constant;
+
+        private Condition(String operator, int index, Object constant) {
+            this.operator = operator;
+            this.index = index;
+            this.constant = constant;
+        }
+    }
+
+    /**
+     * 同一字段上的条件, 等于条件与其他操作符不能同时出现
+     */
+    private static final class FieldConditions {
+
+        private final String field;
+
+        private int eqIndex = -1;
+
+        private boolean eq;
+
+        private List<Condition> operators;
+
+        private FieldConditions(String field) {
+            this.field = field;
+        }
+    }
+
+    public static final class Builder<T> {
+
+        private final Class<T> entityClass;
+
+        private final EntityConverter<T> converter;
+
+        private final Map<String, FieldConditions> fields = new LinkedHashMap<String, FieldConditions>();
+
+        private final Document shape = new Document();
+
+        private final Document sort = new Document();
+
+        private Bson projection;
+
+        private String projectionShape = "";
+
+        private int parameterCount;
+
+        private String name;
+
+        private Builder(Class<T> entityClass) {
+            this.entityClass = entityClass;
+            this.converter = EntityConverter.forClass(entityClass);
+        }
+
+        /**
+         * 统计和日志中显示的名字
+         */
+        public Builder<T> name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder<T> eq(String field) {
+            FieldConditions conditions = conditionsFor(field);
+            if (conditions.eq || conditions.operators != null) {
+                throw new IllegalArgumentException("field " + field + " already has conditions");
+            }
+            conditions.eq = true;
+            conditions.eqIndex = parameterCount++;
+            shape.put(field, "?" + conditions.eqIndex);
+            return this;
+        }
+
+        public Builder<T> ne(String field) {
+            return operator(field, "$ne");
+        }
+
+        public Builder<T> gt(String field) {
+            return operator(field, "$gt");
+        }
+
+        public Builder<T> gte(String field) {
+            return operator(field, "$gte");
+        }
+
+        public Builder<T> lt(String field) {
+            return operator(field, "$lt");
+        }
+
+        public Builder<T> lte(String field) {
+            return operator(field, "$lte");
+        }
+
+        /**
+         * 参数为Collection
+         */
+        public Builder<T> in(String field) {
+            return operator(field, "$in");
+        }
+
+        /**
+         * 参数为Collection
+         */
+        public Builder<T> nin(String field) {
+            return operator(field, "$nin");
+        }
+
+        /**
+         * 字段是否存在, 不占参数
+         */
+        public Builder<T> exists(String field, boolean exists) {
+            return addOperator(field, "$exists", -1, exists);
+        }
+
+        public Builder<T> sort(String field, int rule) {
+            validate(field);
+            sort.put(field, rule);
+            return this;
+        }
+
+        /**
+         * 只取这些字段
+         */
+        public Builder<T> include(String... fields) {
+            for (String field : fields) {
+                validate(field);
+            }
+            this.projection = Projections.include(fields);
+            this.projectionShape = Arrays.toString(fields);
+            return this;
+        }
+
+        /**
+         * 只取视图类中声明的字段, 见MongoDBUtil.projectionOf
+         */
+        public Builder<T> projection(Class<?> viewClass) {
+            this.projection = MongoDBUtil.projectionOf(viewClass);
+            this.projectionShape = viewClass.getName();
+            return this;
+        }
+
+        /**
+         * 编译模板, 相同形状的模板返回已编译的实例
+         *
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        public MongoQueryTemplate<T> build() {
+            String id = shape.toJson() + (sort.isEmpty() ? "" : " sort " + sort.toJson())
+                    + (projectionShape.isEmpty() ? "" : " projection " + projectionShape);
+            String key = entityClass.getName() + "|" + (name == null ? "" : name) + "|" + id;
+            MongoQueryTemplate<?> template = TEMPLATES.get(key);
+            if (template == null) {
+                template = new MongoQueryTemplate<T>(this, id);
+                MongoQueryTemplate<?> exists = TEMPLATES.putIfAbsent(key, template);
+                if (exists != null) {
+                    template = exists;
+                }
+            }
+            return (MongoQueryTemplate<T>) template;
+        }
+
+        private Builder<T> operator(String field, String operator) {
+            return addOperator(field, operator, parameterCount++, null);
+        }
+
+        private Builder<T> addOperator(String field, String operator, int index, Object constant) {
+            FieldConditions conditions = conditionsFor(field);
+            if (conditions.eq) {
+                throw new IllegalArgumentException("field " + field + " already has an equality condition");
+            }
+            if (conditions.operators == null) {
+                conditions.operators = new ArrayList<Condition>();
+            }
+            for (Condition condition : conditions.operators) {
+                if (condition.operator.equals(operator)) {
+                    throw new IllegalArgumentException("field " + field + " already has " + operator);
+                }
+            }
+            conditions.operators.add(new Condition(operator, index, constant));
+            Object existing = shape.get(field);
+            Document shapeOperators = existing instanceof Document ? (Document) existing : new Document();
+            shapeOperators.put(operator, index >= 0 ? "?" + index : constant);
+            shape.put(field, shapeOperators);
+            return this;
+        }
+
+        private FieldConditions conditionsFor(String field) {
+            validate(field);
+            FieldConditions conditions = fields.get(field);
+            if (conditions == null) {
+                conditions = new FieldConditions(field);
+                fields.put(field, conditions);
+            }
+            return conditions;
+        }
+
+        /**
+         * 字段名必须是实体的字段或有setter, 嵌套路径只校验第一段
+         */
+        private void validate(String field) {
+            String root = field.indexOf('.') > 0 ? field.substring(0, field.indexOf('.')) : field;
+            if ("_id".equals(root) || converter.getKeys().contains(root) || converter.hasSetter(root)) {
+                return;
+            }
+            throw new IllegalArgumentException("unknown field " + field + " on " + entityClass.getName());
+        }
+    }
+}
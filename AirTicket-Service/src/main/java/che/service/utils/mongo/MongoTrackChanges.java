@@ -0,0 +1,20 @@
+package che.service.utils.mongo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Description: 从mongo读取该实体时记录各字段的值, 之后MongodbDao.updateChanged只发送修改过的字段.
+ * 记录时会复制嵌套文档、数组、Date等可变值, 只给读取后经常修改再保存的实体(如订单)加;
+ * 没有该注解的实体读取时不记录, 需要时在修改前调用BaseMongoEntity.resetChanges()开始跟踪
+ * <p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MongoTrackChanges {
+}
@@ -0,0 +1,396 @@
+package che.service.utils.mongo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Description: 延迟批量插入. 搜索日志、浏览日志、审计日志等不需要立即落库的记录先放入有界队列,
+ * 攒够flushSize条或每隔flushMillis由后台线程用insertMany写入, 调用方不再等待mongo.
+ * 每条记录入库前预先分配_id, 不按顺序批量插入; 写入失败(如被MongoConcurrencyLimiter拒绝, 或批量中的个别记录出错)的记录留在缓冲区中,
+ * 按200ms、400ms、800ms退避重试, 重试MAX_RETRIES次仍失败才丢弃并计入failed. 超时等情况下服务端可能已经写入,
+ * 重试时这些记录因_id重复被跳过, 不会重复插入;
+ * 重试中的记录占用容量, 队列满时按OverflowPolicy丢弃新记录(计入MongoMetrics)或由调用线程同步写一批(背压).
+ * 容器关闭时(MongoDBUtil.destroy -> close)会把所有队列中剩余的记录写完
+ * <p>
+ * 默认参数可通过mongos.writeBehind.capacity/flushSize/flushMillis/overflow配置
+ *
+ * @param <T>
+ */
+public class MongoWriteBehindBuffer<T extends BaseMongoEntity<?>> {
+
+    private static Logger logger = LoggerFactory.getLogger(MongoWriteBehindBuffer.class);
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃新记录, 计入丢弃数
+         */
+        DROP,
+        /**
+         * 调用线程同步写一批, 腾出空间后再入队
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * dbName + collection -> 默认参数的缓冲区, 见of
+     */
+    private static final ConcurrentMap<String, MongoWriteBehindBuffer<?>> BUFFERS = new ConcurrentHashMap<String, MongoWriteBehindBuffer<?>>();
+
+    /**
+     * 所有未关闭的缓冲区, 包括直接new的, closeAll时全部写完
+     */
+    private static final Set<MongoWriteBehindBuffer<?>> OPEN = Collections.newSetFromMap(new ConcurrentHashMap<MongoWriteBehindBuffer<?>, Boolean>());
+
+    private static volatile int defaultCapacity = 10000;
+
+    private static volatile int defaultFlushSize = 500;
+
+    private static volatile long defaultFlushMillis = 1000;
+
+    private static volatile OverflowPolicy defaultOverflowPolicy = OverflowPolicy.DROP;
+
+    /**
+     * 一批记录写入失败后的最多重试次数
+     */
+    static final int MAX_RETRIES = 3;
+
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
+    private final String dbName;
+
+    private final Class<T> entityClass;
+
+    private final String collection;
+
+    private final int capacity;
+
+    private final int flushSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * 无锁队列, 容量由size控制
+     */
+    private final Queue<T> queue = new ConcurrentLinkedQueue<T>();
+
+    /**
+     * 队列中和等待重试的记录数, 写入成功或最终丢弃后才减少
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 写入失败等待重试的一批记录, 同一时间最多一批
+     */
+    private final AtomicReference<Retry<T>> retry = new AtomicReference<Retry<T>>();
+
+    /**
+     * 已经提交了一次立即flush, 避免每条记录都提交
+     */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private final ScheduledExecutorService flusher;
+
+    public MongoWriteBehindBuffer(String dbName, Class<T> entityClass, int capacity, int flushSize, long flushMillis, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || flushSize <= 0 || flushMillis <= 0) {
+            throw new IllegalArgumentException("capacity, flushSize and flushMillis must be positive");
+        }
+        this.dbName = dbName;
+        this.entityClass = entityClass;
+        this.collection = MongoDBUtil.getTableName(entityClass);
+        this.capacity = capacity;
+        this.flushSize = Math.min(flushSize, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("mongo-write-behind-" + dbName + "-" + collection).build());
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushAll();
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        OPEN.add(this);
+    }
+
+    /**
+     * 获取(dbName, 实体类)对应的默认参数缓冲区, 不存在时创建
+     *
+     * @param dbName
+     * @param entityClass
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends BaseMongoEntity<?>> MongoWriteBehindBuffer<T> of(String dbName, Class<T> entityClass) {
+        String key = dbName + "." + MongoDBUtil.getTableName(entityClass);
+        MongoWriteBehindBuffer<?> buffer = BUFFERS.get(key);
+        if (buffer == null) {
+            synchronized (BUFFERS) {
+                buffer = BUFFERS.get(key);
+                if (buffer == null) {
+                    buffer = new MongoWriteBehindBuffer<T>(dbName, entityClass, defaultCapacity, defaultFlushSize,
+                            defaultFlushMillis, defaultOverflowPolicy);
+                    BUFFERS.put(key, buffer);
+                }
+            }
+        }
+        return (MongoWriteBehindBuffer<T>) buffer;
+    }
+
+    /**
+     * 设置of创建的缓冲区的默认参数, 只影响之后创建的缓冲区
+     */
+    static void configure(int capacity, int flushSize, long flushMillis, OverflowPolicy overflowPolicy) {
+        defaultCapacity = capacity;
+        defaultFlushSize = flushSize;
+        defaultFlushMillis = flushMillis;
+        defaultOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * 关闭所有缓冲区, 写完剩余记录, 由MongoDBUtil.close()调用
+     */
+    static void closeAll() {
+        for (MongoWriteBehindBuffer<?> buffer : OPEN) {
+            buffer.close();
+        }
+        BUFFERS.clear();
+    }
+
+    /**
+     * 放入队列, 立即返回
+     *
+     * @param entity
+     * @return 被丢弃或缓冲区已关闭时返回false
+     */
+    public boolean add(T entity) {
+        if (entity == null) {
+            return false;
+        }
+        if (closed.get()) {
+            drop();
+            return false;
+        }
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) {
+                if (overflowPolicy == OverflowPolicy.CALLER_RUNS && flushBatch() > 0) {
+                    continue;
+                }
+                drop();
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        queue.offer(entity);
+        if (size.get() >= flushSize) {
+            requestFlush();
+        }
+        return true;
+    }
+
+    /**
+     * 写入队列中当前所有记录
+     */
+    public void flushAll() {
+        try {
+            while (flushBatch() > 0) {
+                // 继续写直到队列为空
+            }
+        } finally {
+            flushRequested.set(false);
+        }
+    }
+
+    /**
+     * 停止后台线程并写完剩余记录, 之后add返回false
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+            // 等待退避中的重试, 直到全部写入或重试次数用完
+            while (true) {
+                flushAll();
+                Retry<T> pending = retry.get();
+                if (pending == null) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, pending.dueNanos - System.nanoTime()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        OPEN.remove(this);
+        logger.info("write-behind buffer {}.{} closed, flushed={} dropped={} failed={} retried={} pending={}", dbName,
+                collection, flushed.get(), dropped.get(), failed.get(), retried.get(), size.get());
+    }
+
+    /**
+     * 队列中等待写入和等待重试的记录数
+     */
+    public int getPending() {
+        return size.get();
+    }
+
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 重试MAX_RETRIES次仍写入失败而丢弃的记录数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 写入失败后重试的记录数, 同一条记录每次重试都计入
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * 写入一批: 有到期的重试批次时先重试, 否则从队列取出最多flushSize条并分配_id.
+     * 返回写入成功或最终丢弃的条数(腾出的容量), 没有可写的记录或整批写入失败等待重试时返回0
+     */
+    private int flushBatch() {
+        List<T> batch;
+        int attempts;
+        Retry<T> pending = retry.get();
+        if (pending != null) {
+            if (System.nanoTime() < pending.dueNanos || !retry.compareAndSet(pending, null)) {
+                // 退避中或已被其他线程取走, 先不写新记录, 写入多半也会失败
+                return 0;
+            }
+            batch = pending.batch;
+            attempts = pending.attempts;
+            retried.addAndGet(batch.size());
+        } else {
+            batch = new ArrayList<T>(Math.min(flushSize, Math.max(size.get(), 1)));
+            T entity;
+            while (batch.size() < flushSize && (entity = queue.poll()) != null) {
+                entity.assignInsertId();
+                batch.add(entity);
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            attempts = 0;
+        }
+        List<T> failedBatch = insert(batch);
+        int written = batch.size() - failedBatch.size();
+        if (written > 0) {
+            size.addAndGet(-written);
+            flushed.addAndGet(written);
+            MongoMetrics.recordDocuments(collection, "writeBehind", written);
+        }
+        if (failedBatch.isEmpty()) {
+            return written;
+        }
+        MongoMetrics.recordError(collection, "writeBehind");
+        if (attempts < MAX_RETRIES) {
+            long backoff = TimeUnit.MILLISECONDS.toNanos(RETRY_BACKOFF_MILLIS << attempts);
+            // 只重试失败的记录
+            List<T> retryBatch = new ArrayList<T>(failedBatch);
+            if (!retry.compareAndSet(null, new Retry<T>(retryBatch, attempts + 1, System.nanoTime() + backoff))) {
+                // 已有一批在等待重试, 放回队列, 仍占用容量
+                queue.addAll(retryBatch);
+            }
+            return written;
+        }
+        size.addAndGet(-failedBatch.size());
+        failed.addAndGet(failedBatch.size());
+        logger.warn("write-behind buffer {}.{} dropped {} records after {} retries", dbName, collection, failedBatch.size(), attempts);
+        return written + failedBatch.size();
+    }
+
+    /**
+     * 写入一批已分配_id的记录
+     *
+     * @return 需要重试的记录, 全部写入时为空列表
+     */
+    List<T> insert(List<T> batch) {
+        return MongoDBUtil.insertManyForRetry(dbName, entityClass, batch);
+    }
+
+    private void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushAll();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flushRequested.set(false);
+        }
+    }
+
+    private void drop() {
+        dropped.incrementAndGet();
+        MongoMetrics.recordError(collection, "writeBehindDrop");
+    }
+
+    /**
+     * 写入失败等待重试的一批记录
+     */
+    private static final class Retry<T> {
+
+        private final List<T> batch;
+
+        private final int attempts;
+
+        private final long dueNanos;
+
+        private Retry(List<T> batch, int attempts, long dueNanos) {
+            this.batch = batch;
+            this.attempts = attempts;
+            this.dueNanos = dueNanos;
+        }
+    }
+}
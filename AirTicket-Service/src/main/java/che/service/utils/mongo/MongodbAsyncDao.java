@@ -0,0 +1,217 @@
+package che.service.utils.mongo;
+
+import che.service.utils.page.Page;
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 异步DAO, 与MongodbDao对应. 出错时future正常完成, 结果与MongodbDao一致为false/null
+ *
+ * @param <T>
+ */
+public abstract class MongodbAsyncDao<T extends BaseMongoEntity<?>> implements IMongodbAsyncDao<T> {
+
+    /**
+     * 实体类, 构造时从泛型参数解析一次
+     */
+    private final Class<T> tClass;
+
+    @SuppressWarnings("unchecked")
+    protected MongodbAsyncDao() {
+        // 跳过cglib代理等没有泛型参数的子类
+        Class<?> type = getClass();
+        while (!(type.getGenericSuperclass() instanceof ParameterizedType)) {
+            type = type.getSuperclass();
+        }
+        this.tClass = (Class<T>) ((ParameterizedType) type.getGenericSuperclass()).getActualTypeArguments()[0];
+    }
+
+    @Override
+    public ListenableFuture<Boolean> insertOne(String dbName, T entity) {
+        if (entity == null) {
+            return Futures.immediateFuture(false);
+        }
+        return AsyncMongoDBUtil.insertOne(dbName, tClass, entity);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> insertMany(String dbName, List<T> list) {
+        if (list.isEmpty()) {
+            return Futures.immediateFuture(false);
+        }
+        return AsyncMongoDBUtil.insertMany(dbName, tClass, list);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> deleteOne(String dbName, Map<String, Object> param) {
+        return AsyncMongoDBUtil.deleteOne(dbName, tClass, toDocument(param));
+    }
+
+    @Override
+    public ListenableFuture<Boolean> deleteMany(String dbName, Map<String, Object> param) {
+        return AsyncMongoDBUtil.deleteMany(dbName, tClass, toDocument(param));
+    }
+
+    @Override
+    public ListenableFuture<T> getById(String dbName, String id) {
+        return AsyncMongoDBUtil.findOne(dbName, tClass, new Document("Id", id));
+    }
+
+    /**
+     * 根据多个id 拿多条记录，按传入id的顺序返回
+     *
+     * @param dbName
+     * @param ids
+     * @return
+     */
+    @Override
+    public ListenableFuture<List<T>> findByIds(String dbName, List<String> ids) {
+        return Futures.transform(getByIds(dbName, ids), new Function<Map<String, T>, List<T>>() {
+            @Override
+            public List<T> apply(Map<String, T> map) {
+                return map == null ? null : new ArrayList<T>(map.values());
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Map<String, T>> getByIds(String dbName, List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Futures.<Map<String, T>>immediateFuture(Maps.<String, T>newLinkedHashMap());
+        }
+        return AsyncMongoDBUtil.findMapByIds(dbName, tClass, "Id", ids);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByMap(String dbName, Map<String, Object> param) {
+        return AsyncMongoDBUtil.find(dbName, tClass, toDocument(param), null, null, 0, 0);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson) {
+        return findByFilter(dbName, listBson, null, null);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson, Bson orderBy) {
+        return findByFilter(dbName, listBson, orderBy, null);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson) {
+        return findByFilterOr(dbName, listBson, null, null);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy) {
+        return findByFilterOr(dbName, listBson, orderBy, null);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilter(String dbName, List<Bson> listBson, Bson orderBy, Bson projection) {
+        return AsyncMongoDBUtil.find(dbName, tClass, and(listBson), orderBy, projection, 0, 0);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy, Bson projection) {
+        return AsyncMongoDBUtil.find(dbName, tClass, or(listBson), orderBy, projection, 0, 0);
+    }
+
+    @Override
+    public ListenableFuture<List<T>> findByFilterLimitOne(String dbName, List<Bson> listBson, Bson orderBy) {
+        return AsyncMongoDBUtil.find(dbName, tClass, and(listBson), orderBy, null, 0, 1);
+    }
+
+    /**
+     * 根据实体查询列表（注意，此时所有不为空实体属性都会作为条件进行搜索）
+     *
+     * @param dbName
+     * @param entity
+     * @return
+     */
+    @Override
+    public ListenableFuture<List<T>> findByEntity(String dbName, T entity) {
+        return AsyncMongoDBUtil.find(dbName, tClass, entity.toDocument(), null, null, 0, 0);
+    }
+
+    /**
+     * 分页查询，列表和总数同时查询，page.count设置为-1时不统计总数
+     *
+     * @param dbName
+     * @param param
+     * @param page
+     * @return
+     */
+    @Override
+    public ListenableFuture<Page<T>> searchByMap(String dbName, Map<String, Object> param, Page<T> page) {
+        return AsyncMongoDBUtil.searchPage(dbName, tClass, page, orderBy(page), param == null ? null : toDocument(param), null);
+    }
+
+    @Override
+    public ListenableFuture<Page<T>> searchByFilter(String dbName, List<Bson> listBson, Page<T> page) {
+        return searchByFilter(dbName, listBson, page, null);
+    }
+
+    @Override
+    public ListenableFuture<Page<T>> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page) {
+        return searchByFilterOr(dbName, listBson, page, null);
+    }
+
+    @Override
+    public ListenableFuture<Page<T>> searchByFilter(String dbName, List<Bson> listBson, Page<T> page, Bson projection) {
+        return AsyncMongoDBUtil.searchPage(dbName, tClass, page, orderBy(page), and(listBson), projection);
+    }
+
+    @Override
+    public ListenableFuture<Page<T>> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page, Bson projection) {
+        return AsyncMongoDBUtil.searchPage(dbName, tClass, page, orderBy(page), or(listBson), projection);
+    }
+
+    /**
+     * 在当前线程内覆盖读写选项, 作用于scope内发出的查询
+     *
+     * @param options
+     * @return
+     */
+    @Override
+    public MongoOptionsScope withOptions(MongoOperationOptions options) {
+        return MongoOptionsScope.open(options);
+    }
+
+    private static Bson orderBy(Page<?> page) {
+        if (StringUtils.isNotBlank(page.getOrderBy())) {
+            return new BasicDBObject(page.getOrderBy(), page.getOrderByRule());
+        }
+        return new BasicDBObject("CreateTime", page.getOrderByRule());//1 or -1 倒序
+    }
+
+    private static Bson and(List<Bson> listBson) {
+        return listBson != null && listBson.size() > 0 ? Filters.and(listBson) : null;
+    }
+
+    private static Bson or(List<Bson> listBson) {
+        return listBson != null && listBson.size() > 0 ? Filters.or(listBson) : null;
+    }
+
+    private static Document toDocument(Map<String, Object> param) {
+        Document document = new Document();
+        if (param != null) {
+            for (Map.Entry<String, Object> entry : param.entrySet()) {
+                document.append(entry.getKey(), entry.getValue());
+            }
+        }
+        return document;
+    }
+}
@@ -1,8 +1,12 @@
 package che.service.utils.mongo;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.mongodb.BasicDBObject;
+import com.mongodb.Block;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -10,8 +14,11 @@ import che.service.utils.page.Page;
 
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 /**
@@ -20,6 +27,21 @@ import java.util.Map;
  */
 public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongodbDao<T> {
 
+    /**
+     * 实体类, 构造时从泛型参数解析一次
+     */
+    private final Class<T> tClass;
+
+    @SuppressWarnings("unchecked")
+    protected MongodbDao() {
+        // 跳过cglib代理等没有泛型参数的子类
+        Class<?> type = getClass();
+        while (!(type.getGenericSuperclass() instanceof ParameterizedType)) {
+            type = type.getSuperclass();
+        }
+        this.tClass = (Class<T>) ((ParameterizedType) type.getGenericSuperclass()).getActualTypeArguments()[0];
+    }
+
     /**
      * 插入一条记录
      *
@@ -33,7 +55,7 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
             return false;
         }
         Class<T> clazz = this.getTClass();
-        return MongoDBUtil.insertOne(dbName, clazz, entity.toDocument());
+        return MongoDBUtil.insertOne(dbName, clazz, entity);
     }
 
     /**
@@ -49,11 +71,46 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
             return false;
         }
         Class<T> clazz = this.getTClass();
-        List<Document> docList = Lists.newArrayList();
-        for (T entity : list) {
-            docList.add(entity.toDocument());
+        return MongoDBUtil.insertManyEntities(dbName, clazz, list);
+    }
+
+    /**
+     * 延迟批量插入，放入队列后立即返回，由后台线程按批写入，适合日志类记录，见MongoWriteBehindBuffer
+     *
+     * @param dbName
+     * @param entity
+     * @return 队列满被丢弃时返回false
+     */
+    @Override
+    public boolean insertBuffered(String dbName, T entity) {
+        if (entity == null) {
+            return false;
         }
-        return MongoDBUtil.insertMany(dbName, clazz, docList);
+        return MongoWriteBehindBuffer.of(dbName, this.getTClass()).add(entity);
+    }
+
+    /**
+     * 创建批量写构建器，插入、更新、upsert、删除可以混合，按批以无序bulkWrite发送
+     *
+     * @param dbName
+     * @return
+     */
+    @Override
+    public MongoBulkOperation<T> bulk(String dbName) {
+        return new MongoBulkOperation<T>(dbName, this.getTClass());
+    }
+
+    /**
+     * 创建聚合管道，统计在mongo中完成，结果映射为resultClass，见MongoAggregation
+     *
+     * @param dbName
+     * @param resultClass Document、实体或DTO
+     * @param <R>
+     * @return
+     */
+    @Override
+    public <R> MongoAggregation<R> aggregate(String dbName, Class<R> resultClass) {
+        return new MongoAggregation<R>(dbName, this.getTClass(), resultClass);
     }
 
     /**
@@ -63,15 +120,17 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @param param     将匹配的条件放入map中
      * @param newEntity
      * @return
+     * @deprecated 会$set实体所有不为null的字段, 使用updateChanged
      */
     @Override
+    @Deprecated
     public boolean updateOne(String dbName, Map<String, Object> param, T newEntity) {
         Class<T> clazz = this.getTClass();
         Document doc = new Document();
         for (Map.Entry<String, Object> entry : param.entrySet()) {
             doc.append(entry.getKey(), entry.getValue());
         }
-        return MongoDBUtil.updateOne(dbName, clazz, doc, newEntity.toDocument());
+        return MongoDBUtil.updateOne(dbName, clazz, doc, newEntity);
     }
 
     /**
@@ -81,15 +140,99 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @param param     将匹配的条件放入map中
      * @param newEntity
      * @return
+     * @deprecated 会$set实体所有不为null的字段, 使用updateManyChanged
      */
     @Override
+    @Deprecated
     public boolean updateMany(String dbName, Map<String, Object> param, T newEntity) {
         Class<T> clazz = this.getTClass();
         Document doc = new Document();
         for (Map.Entry<String, Object> entry : param.entrySet()) {
             doc.append(entry.getKey(), entry.getValue());
         }
-        return MongoDBUtil.updateMany(dbName, clazz, doc, newEntity.toDocument());
+        return MongoDBUtil.updateMany(dbName, clazz, doc, newEntity);
+    }
+
+    /**
+     * 更新第一条匹配的记录，只发送开始跟踪后修改过的字段($set/$unset，嵌套文档按路径)，
+     * 没有修改时不访问mongo，更新成功后以当前值作为下次比较的基准。
+     * 有@MongoTrackChanges的实体从mongo读取时开始跟踪，其他实体在修改前调用entity.resetChanges()
+     *
+     * @param dbName
+     * @param param  将匹配的条件放入map中
+     * @param entity 跟踪后修改过的实体，没有跟踪的实体$set所有不为null的字段
+     * @return
+     */
+    @Override
+    public boolean updateChanged(String dbName, Map<String, Object> param, T entity) {
+        return updateChanged(dbName, param, entity, false);
+    }
+
+    /**
+     * 更新所有匹配的记录，只发送修改过的字段，见updateChanged
+     *
+     * @param dbName
+     * @param param  将匹配的条件放入map中
+     * @param entity
+     * @return
+     */
+    @Override
+    public boolean updateManyChanged(String dbName, Map<String, Object> param, T entity) {
+        return updateChanged(dbName, param, entity, true);
+    }
+
+    private boolean updateChanged(String dbName, Map<String, Object> param, T entity, boolean many) {
+        Document update = entity.toUpdateDocument();
+        if (update.isEmpty()) {
+            return true;
+        }
+        Document doc = new Document();
+        for (Map.Entry<String, Object> entry : param.entrySet()) {
+            doc.append(entry.getKey(), entry.getValue());
+        }
+        if (!MongoDBUtil.update(dbName, this.getTClass(), doc, update, many)) {
+            return false;
+        }
+        entity.resetChanges();
+        return true;
+    }
+
+    /**
+     * 原子的查找并更新第一条匹配的记录，一次往返完成，不需要先查再updateOne
+     *
+     * @param dbName
+     * @param listBson  and条件，可以带守卫条件
+     * @param update    更新操作符，如 Updates.inc、Updates.set
+     * @param returnNew true返回更新后的记录，false返回更新前的记录
+     * @return 没有匹配的记录时返回null，出错或超出并发限制时抛出异常
+     */
+    @Override
+    public T findOneAndUpdate(String dbName, List<Bson> listBson, Bson update, boolean returnNew) {
+        Class<T> clazz = this.getTClass();
+        Bson filter = listBson == null || listBson.isEmpty() ? null : Filters.and(listBson);
+        return MongoDBUtil.findOneAndUpdate(dbName, clazz, filter, update, returnNew, false);
+    }
+
+    /**
+     * 在field的值不小于amount时原子的减去amount，如按航班扣减余座，并发扣减不会超卖
+     *
+     * @param dbName
+     * @param listBson 定位记录的and条件
+     * @param field    要扣减的字段
+     * @param amount   扣减数量，必须大于0
+     * @return 扣减后的记录，余量不足或没有匹配的记录时返回null，出错或超出并发限制时抛出异常
+     */
+    @Override
+    public T decrementIfEnough(String dbName, List<Bson> listBson, String field, long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive");
+        }
+        List<Bson> filters = new ArrayList<Bson>();
+        if (listBson != null) {
+            filters.addAll(listBson);
+        }
+        filters.add(Filters.gte(field, amount));
+        return findOneAndUpdate(dbName, filters, Updates.inc(field, -amount), true);
     }
 
     /**
@@ -137,13 +280,19 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @return
      */
     @Override
-    public T getById(String dbName, String id) {
-        Class<T> clazz = this.getTClass();
-        return MongoDBUtil.getOne(dbName, clazz, new Document("Id", id));
+    public T getById(final String dbName, String id) {
+        final Class<T> clazz = this.getTClass();
+        final Document filter = new Document("Id", id);
+        return MongoQueryCache.get(dbName, clazz, "getOne", filter, null, null, new Callable<T>() {
+            @Override
+            public T call() {
+                return MongoDBUtil.getOne(dbName, clazz, filter);
+            }
+        });
     }
 
     /**
-     * 根据多个id 那多条记录
+     * 根据多个id 那多条记录，按传入id的顺序返回，没查到的id会记debug日志
      *
      * @param dbName
      * @param ids
@@ -154,16 +303,26 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
         if (ids == null || ids.isEmpty()) {
             return Lists.newArrayList();
         }
+        Map<String, T> map = getByIds(dbName, ids);
+        return map == null ? null : new ArrayList<T>(map.values());
+    }
 
-        Class<T> clazz = this.getTClass();
-        List<Bson> bsonList = new ArrayList<Bson>();
-        for (String id : ids) {
-            bsonList.add(Filters.eq("Id", id));
+    /**
+     * 根据多个id 拿多条记录，返回id到记录的map，按传入id的顺序排列，没查到的id不在map中
+     *
+     * @param dbName
+     * @param ids
+     * @return
+     */
+    @Override
+    public Map<String, T> getByIds(String dbName, List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Maps.newLinkedHashMap();
         }
-        return MongoDBUtil.findByFilterOr(dbName, clazz, bsonList);
+        Class<T> clazz = this.getTClass();
+        return MongoDBUtil.findMapByIds(dbName, clazz, "Id", ids);
     }
 
-
     /**
      * 根据map查询列表
      *
@@ -172,15 +331,20 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @return
      */
     @Override
-    public List<T> findByMap(String dbName, Map<String, Object> param) {
-        Class<T> clazz = this.getTClass();
-        Document document = new Document();
+    public List<T> findByMap(final String dbName, Map<String, Object> param) {
+        final Class<T> clazz = this.getTClass();
+        final Document document = new Document();
         if (param != null) {
             for (Map.Entry<String, Object> entry : param.entrySet()) {
                 document.append(entry.getKey(), entry.getValue());
             }
         }
-        return MongoDBUtil.find(dbName, clazz, document);
+        return MongoQueryCache.get(dbName, clazz, "find", document, null, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.find(dbName, clazz, document);
+            }
+        });
     }
 
     /**
@@ -190,9 +354,14 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @return
      */
     @Override
-    public List<T> findByFilter(String dbName, List<Bson> listBson) {
-        Class<T> clazz = this.getTClass();
-        return MongoDBUtil.findByFilter(dbName, clazz, listBson);
+    public List<T> findByFilter(final String dbName, final List<Bson> listBson) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", and(listBson), null, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilter(dbName, clazz, listBson);
+            }
+        });
     }
 
     /**
@@ -202,21 +371,76 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @return
      */
     @Override
-    public List<T> findByFilter(String dbName, List<Bson> listBson, Bson orderBy) {
-        Class<T> clazz = this.getTClass();
-        return MongoDBUtil.findByFilter(dbName, clazz, listBson, orderBy);
+    public List<T> findByFilter(final String dbName, final List<Bson> listBson, final Bson orderBy) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", and(listBson), orderBy, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilter(dbName, clazz, listBson, orderBy);
+            }
+        });
     }
 
     @Override
-    public List<T> findByFilterOr(String dbName, List<Bson> listBson) {
-        Class<T> clazz = this.getTClass();
-        return MongoDBUtil.findByFilterOr(dbName, clazz, listBson);
+    public List<T> findByFilterOr(final String dbName, final List<Bson> listBson) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", or(listBson), null, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilterOr(dbName, clazz, listBson);
+            }
+        });
     }
 
     @Override
-    public List<T> findByFilterOr(String dbName, List<Bson> listBson, Bson orderBy) {
-        Class<T> clazz = this.getTClass();
-        return MongoDBUtil.findByFilterOr(dbName, clazz, listBson, orderBy);
+    public List<T> findByFilterOr(final String dbName, final List<Bson> listBson, final Bson orderBy) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", or(listBson), orderBy, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilterOr(dbName, clazz, listBson, orderBy);
+            }
+        });
+    }
+
+    /**
+     * 根据Filter查询，只取projection中的字段
+     *
+     * @param dbName
+     * @param listBson
+     * @param orderBy    可以为null
+     * @param projection 可以为null，见Projections和MongoDBUtil.projectionOf
+     * @return
+     */
+    @Override
+    public List<T> findByFilter(final String dbName, final List<Bson> listBson, final Bson orderBy, final Bson projection) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", and(listBson), orderBy, projection, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilter(dbName, clazz, listBson, orderBy, projection);
+            }
+        });
+    }
+
+    /**
+     * 根据Filter查询(Or)，只取projection中的字段
+     *
+     * @param dbName
+     * @param listBson
+     * @param orderBy    可以为null
+     * @param projection 可以为null，见Projections和MongoDBUtil.projectionOf
+     * @return
+     */
+    @Override
+    public List<T> findByFilterOr(final String dbName, final List<Bson> listBson, final Bson orderBy, final Bson projection) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "find", or(listBson), orderBy, projection, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilterOr(dbName, clazz, listBson, orderBy, projection);
+            }
+        });
     }
 
     /**
@@ -228,9 +452,124 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
      * @return
      */
     @Override
-    public List<T> findByFilterLimitOne(String dbName, List<Bson> listBson, Bson orderBy) {
+    public List<T> findByFilterLimitOne(final String dbName, final List<Bson> listBson, final Bson orderBy) {
+        final Class<T> clazz = this.getTClass();
+        return MongoQueryCache.get(dbName, clazz, "findOne", and(listBson), orderBy, null, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.<T>findByFilterLimitOne(dbName, clazz, listBson, orderBy);
+            }
+        });
+    }
+
+    /**
+     * 按预编译的查询模板查询，排序和投影来自模板，耗时按模板名记入MongoMetrics，见MongoQueryTemplate
+     *
+     * @param dbName
+     * @param query
+     * @return
+     */
+    @Override
+    public List<T> find(final String dbName, final MongoQuery<T> query) {
+        final Class<T> clazz = this.getTClass();
+        long start = System.nanoTime();
+        List<T> list = MongoQueryCache.get(dbName, clazz, "find", query, query.getSort(), query.getProjection(), new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.findByFilter(dbName, clazz, Collections.<Bson>singletonList(query), query.getSort(), query.getProjection());
+            }
+        });
+        recordQuery(query, start, list == null ? -1 : list.size());
+        return list;
+    }
+
+    /**
+     * 按预编译的查询模板查询第一条，有排序时按模板的排序取第一条
+     *
+     * @param dbName
+     * @param query
+     * @return 没有或出错时返回null
+     */
+    @Override
+    public T findOne(final String dbName, final MongoQuery<T> query) {
+        final Class<T> clazz = this.getTClass();
+        long start = System.nanoTime();
+        List<T> list = MongoQueryCache.get(dbName, clazz, "findOne", query, query.getSort(), query.getProjection(), new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return MongoDBUtil.findByFilterLimitOne(dbName, clazz, Collections.<Bson>singletonList(query), query.getSort());
+            }
+        });
+        recordQuery(query, start, list == null ? -1 : list.size());
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 按预编译的查询模板分页查询，模板没有排序时使用page.orderBy，不走查询缓存
+     *
+     * @param dbName
+     * @param query
+     * @param page
+     * @return
+     */
+    @Override
+    public Page<T> search(String dbName, MongoQuery<T> query, Page<T> page) {
         Class<T> clazz = this.getTClass();
-        return MongoDBUtil.findByFilterLimitOne(dbName, clazz, listBson, orderBy);
+        Bson orderBy = query.getSort();
+        if (orderBy == null) {
+            orderBy = new BasicDBObject(StringUtils.isNotBlank(page.getOrderBy()) ? page.getOrderBy() : "CreateTime", page.getOrderByRule());
+        }
+        long start = System.nanoTime();
+        Future<Long> count = submitCount(dbName, clazz, query, page);
+        Page<T> returnPage = MongoDBUtil.searchPageByFilter(dbName, clazz, page, orderBy, Collections.<Bson>singletonList(query), query.getProjection());
+        if (returnPage != null && count != null) {
+            returnPage.setCount(MongoDBUtil.getCountResult(count));
+        }
+        recordQuery(query, start, returnPage == null || returnPage.getList() == null ? -1 : returnPage.getList().size());
+        return returnPage;
+    }
+
+    /**
+     * 按Filter逐条回调，不在内存中构建整个结果列表，适合扫描整个collection的任务
+     *
+     * @param dbName
+     * @param listBson
+     * @param block
+     * @return 全部处理完返回true，出错返回false
+     */
+    @Override
+    public boolean forEach(String dbName, List<Bson> listBson, Block<? super T> block) {
+        return forEach(dbName, listBson, 0, block);
+    }
+
+    /**
+     * 按Filter逐条回调，batchSize控制每批从服务端取回的文档数
+     *
+     * @param dbName
+     * @param listBson
+     * @param batchSize 小于等于0时使用mongos.batchSize
+     * @param block
+     * @return 全部处理完返回true，出错返回false
+     */
+    @Override
+    public boolean forEach(String dbName, List<Bson> listBson, int batchSize, Block<? super T> block) {
+        Class<T> clazz = this.getTClass();
+        return MongoDBUtil.forEachByFilter(dbName, clazz, listBson, batchSize, block);
+    }
+
+    /**
+     * 按Filter打开游标，调用方负责close
+     *
+     * @param dbName
+     * @param listBson
+     * @param orderBy   可以为null
+     * @param batchSize 小于等于0时使用mongos.batchSize
+     * @return 出错时返回null
+     */
+    @Override
+    public MongoCursor<T> iterator(String dbName, List<Bson> listBson, Bson orderBy, int batchSize) {
+        Class<T> clazz = this.getTClass();
+        return MongoDBUtil.iterateByFilter(dbName, clazz, listBson, orderBy, batchSize);
     }
 
     /**
@@ -248,12 +587,14 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
 
     /**
      * 分页查询，目前page中没有总页数
+     * page.count设置为-1时不统计总数，page.approximateCount为true时允许使用缓存的总数
      *
      * @param dbName
      * @param param
      * @param page
      * @return
      */
+    @Override
     public Page<T> searchByMap(String dbName, Map<String, Object> param, Page<T> page) {
         Class<T> clazz = this.getTClass();
         Bson orderBy;
@@ -269,14 +610,31 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
             }
         }
 
+        Future<Long> count = submitCount(dbName, clazz, param == null ? null : new Document(param), page);
         List<T> list = MongoDBUtil.findByPage(dbName, clazz, page.getPageNo(), page.getPageSize(), orderBy, docList);
-        long count = MongoDBUtil.getCountByDocument(dbName, clazz, docList);
         page.setList(list);
-        page.setCount(count);
+        if (count != null) {
+            page.setCount(MongoDBUtil.getCountResult(count));
+        }
         return page;
     }
 
+    @Override
     public Page<T> searchByFilter(String dbName, List<Bson> listBson, Page<T> page) {
+        return searchByFilter(dbName, listBson, page, null);
+    }
+
+    /**
+     * 分页查询，只取projection中的字段，列表页只需要部分字段时使用
+     *
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection 可以为null，见Projections和MongoDBUtil.projectionOf
+     * @return
+     */
+    @Override
+    public Page<T> searchByFilter(String dbName, List<Bson> listBson, Page<T> page, Bson projection) {
         Class<T> clazz = this.getTClass();
         Bson orderBy;
         if (StringUtils.isNotBlank(page.getOrderBy())) {
@@ -285,13 +643,30 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
             orderBy = new BasicDBObject("CreateTime", page.getOrderByRule());//1 or -1 倒序
         }
 
-        Page<T> returnPage = MongoDBUtil.searchPageByFilter(dbName, clazz, page, orderBy, listBson);
-        long count = MongoDBUtil.getCountByFilter(dbName, clazz, listBson);
-        returnPage.setCount(count);
+        Future<Long> count = submitCount(dbName, clazz, listBson != null && listBson.size() > 0 ? Filters.and(listBson) : null, page);
+        Page<T> returnPage = MongoDBUtil.searchPageByFilter(dbName, clazz, page, orderBy, listBson, projection);
+        if (returnPage != null && count != null) {
+            returnPage.setCount(MongoDBUtil.getCountResult(count));
+        }
         return returnPage;
     }
 
+    @Override
     public Page<T> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page) {
+        return searchByFilterOr(dbName, listBson, page, null);
+    }
+
+    /**
+     * 分页查询，只取projection中的字段，列表页只需要部分字段时使用
+     *
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @param projection 可以为null，见Projections和MongoDBUtil.projectionOf
+     * @return
+     */
+    @Override
+    public Page<T> searchByFilterOr(String dbName, List<Bson> listBson, Page<T> page, Bson projection) {
         Class<T> clazz = this.getTClass();
         Bson orderBy;
         if (StringUtils.isNotBlank(page.getOrderBy())) {
@@ -300,17 +675,115 @@ public abstract class MongodbDao<T extends BaseMongoEntity<?>> implements IMongo
             orderBy = new BasicDBObject("CreateTime", page.getOrderByRule());//1 or -1 倒序
         }
 
-        Page<T> returnPage = MongoDBUtil.searchPageByFilterOr(dbName, clazz, page, orderBy, listBson);
-        long count = MongoDBUtil.getCountByFilterOr(dbName, clazz, listBson);
-        returnPage.setCount(count);
+        Future<Long> count = submitCount(dbName, clazz, listBson != null && listBson.size() > 0 ? Filters.or(listBson) : null, page);
+        Page<T> returnPage = MongoDBUtil.searchPageByFilterOr(dbName, clazz, page, orderBy, listBson, projection);
+        if (returnPage != null && count != null) {
+            returnPage.setCount(MongoDBUtil.getCountResult(count));
+        }
+        return returnPage;
+    }
+
+
+    /**
+     * 键集分页查询，page.continuation为空时查第一页，返回的page.nextContinuation用于查下一页。
+     * 不使用skip，翻到很深的页时代价与第一页相同
+     *
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     * @throws IllegalArgumentException page.orderBy不是实体的字段，或续页标记不是按该排序生成的
+     */
+    @Override
+    public Page<T> searchByFilterSeek(String dbName, List<Bson> listBson, Page<T> page) {
+        Class<T> clazz = this.getTClass();
+        String orderKey = StringUtils.isNotBlank(page.getOrderBy()) ? page.getOrderBy() : "CreateTime";
+        Bson filter = listBson != null && listBson.size() > 0 ? Filters.and(listBson) : null;
+
+        Future<Long> count = submitCount(dbName, clazz, filter, page);
+        Page<T> returnPage = MongoDBUtil.searchPageBySeek(dbName, clazz, page, orderKey, filter);
+        if (returnPage != null && count != null) {
+            returnPage.setCount(MongoDBUtil.getCountResult(count));
+        }
+        return returnPage;
+    }
+
+    /**
+     * 键集分页查询(Or)
+     *
+     * @param dbName
+     * @param listBson
+     * @param page
+     * @return
+     */
+    @Override
+    public Page<T> searchByFilterOrSeek(String dbName, List<Bson> listBson, Page<T> page) {
+        Class<T> clazz = this.getTClass();
+        String orderKey = StringUtils.isNotBlank(page.getOrderBy()) ? page.getOrderBy() : "CreateTime";
+        Bson filter = listBson != null && listBson.size() > 0 ? Filters.or(listBson) : null;
+
+        Future<Long> count = submitCount(dbName, clazz, filter, page);
+        Page<T> returnPage = MongoDBUtil.searchPageBySeek(dbName, clazz, page, orderKey, filter);
+        if (returnPage != null && count != null) {
+            returnPage.setCount(MongoDBUtil.getCountResult(count));
+        }
         return returnPage;
     }
 
+    /**
+     * 在当前线程内覆盖本次调用的读写选项，如搜索走从库、限制maxTimeMS，用try-with-resources关闭
+     *
+     * @param options
+     * @return
+     */
+    @Override
+    public MongoOptionsScope withOptions(MongoOperationOptions options) {
+        return MongoOptionsScope.open(options);
+    }
+
+    /**
+     * page.count为-1时不统计总数，返回null；否则在线程池中与分页查询并行统计
+     *
+     * @param dbName
+     * @param clazz
+     * @param filter
+     * @param page
+     * @return
+     */
+    private Future<Long> submitCount(String dbName, Class<T> clazz, Bson filter, Page<T> page) {
+        if (page.isNotCount()) {
+            return null;
+        }
+        return MongoDBUtil.submitCount(dbName, clazz, filter, page.isApproximateCount());
+    }
 
     private Class<T> getTClass() {
-        @SuppressWarnings("unchecked")
-        Class<T> tClass = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
         return tClass;
     }
 
+    /**
+     * 按模板名记录耗时和返回条数，包括命中查询缓存的调用，documents小于0表示出错
+     */
+    private void recordQuery(MongoQuery<T> query, long start, int documents) {
+        String collection = MongoDBUtil.getTableName(this.getTClass());
+        String operation = "query " + query.getTemplate().getName();
+        MongoMetrics.recordLatency(collection, operation, System.nanoTime() - start);
+        if (documents < 0) {
+            MongoMetrics.recordError(collection, operation);
+        } else {
+            MongoMetrics.recordDocuments(collection, operation, documents);
+        }
+    }
+
+    /**
+     * 查询缓存的key用, 与MongoDBUtil一样空条件视为查询全部
+     */
+    private static Bson and(List<Bson> listBson) {
+        return listBson == null || listBson.isEmpty() ? null : Filters.and(listBson);
+    }
+
+    private static Bson or(List<Bson> listBson) {
+        return listBson == null || listBson.isEmpty() ? null : Filters.or(listBson);
+    }
+
 }
@@ -0,0 +1,114 @@
+package che.service.utils.mongo;
+
+import che.service.utils.page.Page;
+import org.bson.Document;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Description: 实体分页结果在redis中的二进制序列化, 依次写入
+ * pageNo, pageSize, count, orderBy, orderByRule, approximateCount, nextContinuation, otherData和list,
+ * list中的实体格式同EntityRedisSerializer. 首页索引等派生字段不保存, 需要时调用initialize().
+ * 实体类字段变化后, 之前写入的数据反序列化为null
+ *
+ * @param <T>
+ */
+public class PageRedisSerializer<T extends BaseMongoEntity<?>> implements RedisSerializer<Page<T>> {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 格式版本, Page的字段变化时修改
+     */
+    private static final byte VERSION = 1;
+
+    private final CompactEntityFormat<T> format;
+
+    public PageRedisSerializer(Class<T> entityClass) {
+        this.format = new CompactEntityFormat<T>(entityClass);
+    }
+
+    @Override
+    public byte[] serialize(Page<T> page) throws SerializationException {
+        if (page == null) {
+            return EMPTY;
+        }
+        try {
+            List<T> list = page.getList();
+            CompactEntityFormat.Output out = new CompactEntityFormat.Output(64 + (list == null ? 0 : list.size() * 128));
+            out.writeByte(VERSION);
+            out.writeVarLong(page.getPageNo());
+            out.writeVarLong(page.getPageSize());
+            out.writeVarLong(page.getCount());
+            CompactEntityFormat.writeValue(out, page.getOrderBy());
+            out.writeVarLong(page.getOrderByRule());
+            CompactEntityFormat.writeValue(out, page.isApproximateCount());
+            CompactEntityFormat.writeValue(out, page.getNextContinuation());
+            CompactEntityFormat.writeValue(out, page.getOtherData());
+            if (list == null) {
+                out.writeVarLong(-1);
+            } else {
+                out.writeVarLong(list.size());
+                for (T entity : list) {
+                    out.writeByte(entity == null ? 0 : 1);
+                    if (entity != null) {
+                        format.writeEntity(out, entity);
+                    }
+                }
+            }
+            return out.toByteArray();
+        } catch (RuntimeException e) {
+            throw new SerializationException("Could not serialize page of " + format.getEntityClass().getName(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Page<T> deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            CompactEntityFormat.Input in = new CompactEntityFormat.Input(bytes);
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            Page<T> page = new Page<T>();
+            page.setPageNo((int) in.readVarLong());
+            page.setPageSize((int) in.readVarLong());
+            page.setCount(in.readVarLong());
+            page.setOrderBy((String) CompactEntityFormat.readValue(in));
+            page.setOrderByRule((int) in.readVarLong());
+            page.setApproximateCount((Boolean) CompactEntityFormat.readValue(in));
+            page.setNextContinuation((String) CompactEntityFormat.readValue(in));
+            page.setOtherData((Map<String, Object>) (Document) CompactEntityFormat.readValue(in));
+            int size = (int) in.readVarLong();
+            if (size < 0) {
+                page.setList(null);
+                return page;
+            }
+            List<T> list = new ArrayList<T>(size);
+            for (int i = 0; i < size; i++) {
+                if (in.readByte() == 0) {
+                    list.add(null);
+                    continue;
+                }
+                T entity = format.readEntity(in);
+                if (entity == null) {
+                    // 实体类字段已变化, 整页作废
+                    return null;
+                }
+                list.add(entity);
+            }
+            page.setList(list);
+            return page;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Could not deserialize page of " + format.getEntityClass().getName(), e);
+        }
+    }
+}
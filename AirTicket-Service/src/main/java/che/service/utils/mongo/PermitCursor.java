@@ -0,0 +1,78 @@
+package che.service.utils.mongo;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Description: 持有MongoConcurrencyLimiter许可的游标, 见MongoDBUtil.iterateByFilter.
+ * 流式读取期间一直占用许可, close或读完时释放(只释放一次), 全表扫描类任务也受并发限制
+ * <p>
+ *
+ * @param <T>
+ */
+final class PermitCursor<T> implements MongoCursor<T> {
+
+    private final MongoCursor<T> cursor;
+
+    private final MongoConcurrencyLimiter.Permit permit;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PermitCursor(MongoCursor<T> cursor, MongoConcurrencyLimiter.Permit permit) {
+        this.cursor = cursor;
+        this.permit = permit;
+    }
+
+    @Override
+    public void close() {
+        try {
+            cursor.close();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        boolean hasNext = cursor.hasNext();
+        if (!hasNext) {
+            release();
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        return cursor.next();
+    }
+
+    @Override
+    public T tryNext() {
+        return cursor.tryNext();
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return cursor.getServerCursor();
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return cursor.getServerAddress();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            permit.release();
+        }
+    }
+}
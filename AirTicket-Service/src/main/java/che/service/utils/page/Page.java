@@ -61,6 +61,12 @@ public class Page<T> implements Serializable {
 
 	private Map<String, Object> otherData;	// 备用，外加数据集
 
+	private boolean approximateCount; // 总数允许使用短时间内缓存的近似值，见mongos.countCacheSeconds
+
+	private String continuation; // 键集分页的续页标记，为空表示查第一页
+
+	private String nextContinuation; // 键集分页查询后返回的下一页续页标记，为null表示没有下一页
+
 	public Page() {
 		this.pageSize = -1;
 	}
@@ -569,6 +575,48 @@ public class Page<T> implements Serializable {
 		this.otherData.put(key, value);
 	}
 
+	/**
+	 * 总数是否允许使用缓存的近似值
+	 */
+	@JsonIgnore
+	public boolean isApproximateCount() {
+		return approximateCount;
+	}
+
+	/**
+	 * 设置总数是否允许使用缓存的近似值，列表页翻页时总数不需要精确时使用
+	 */
+	public void setApproximateCount(boolean approximateCount) {
+		this.approximateCount = approximateCount;
+	}
+
+	/**
+	 * 获取键集分页的续页标记
+	 */
+	@JsonIgnore
+	public String getContinuation() {
+		return continuation;
+	}
+
+	/**
+	 * 设置键集分页的续页标记，传入上一页返回的nextContinuation，为空表示查第一页
+	 */
+	public void setContinuation(String continuation) {
+		this.continuation = continuation;
+	}
+
+	/**
+	 * 获取下一页的续页标记，为null表示没有下一页
+	 */
+	@JsonIgnore
+	public String getNextContinuation() {
+		return nextContinuation;
+	}
+
+	public void setNextContinuation(String nextContinuation) {
+		this.nextContinuation = nextContinuation;
+	}
+
 	public int getOrderByRule() {
 		return orderByRule;
 	}
@@ -0,0 +1,44 @@
+package che.service.utils.page;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Controller返回PageJsonBody时用PageJsonWriter直接写响应的输出流, 输出格式见PageJsonWriter.
+ * 只处理PageJsonBody, 直接返回Page的接口不受影响; 只用于输出, 不支持读请求体
+ */
+public class PageHttpMessageConverter extends AbstractHttpMessageConverter<PageJsonBody> {
+
+	public PageHttpMessageConverter() {
+		super(Charset.forName("UTF-8"), MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return PageJsonBody.class == clazz;
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected PageJsonBody readInternal(Class<? extends PageJsonBody> clazz, HttpInputMessage inputMessage)
+			throws IOException, HttpMessageNotReadableException {
+		throw new HttpMessageNotReadableException("PageJsonBody can not be read from request body");
+	}
+
+	@Override
+	protected void writeInternal(PageJsonBody body, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		PageJsonWriter.write(outputMessage.getBody(), body.getPage());
+	}
+}
@@ -0,0 +1,25 @@
+package che.service.utils.page;
+
+/**
+ * Controller返回值的包装, 表示该接口按PageJsonWriter的格式流式输出分页结果(见PageHttpMessageConverter).
+ * 直接返回Page的接口仍由Jackson按Page的getter输出, 格式不变
+ * <pre>
+ * return PageJsonBody.of(page);
+ * </pre>
+ */
+public final class PageJsonBody {
+
+	private final Page<?> page;
+
+	private PageJsonBody(Page<?> page) {
+		this.page = page;
+	}
+
+	public static PageJsonBody of(Page<?> page) {
+		return new PageJsonBody(page);
+	}
+
+	public Page<?> getPage() {
+		return page;
+	}
+}
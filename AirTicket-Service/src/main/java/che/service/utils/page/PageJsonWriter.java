@@ -0,0 +1,107 @@
+package che.service.utils.page;
+
+import che.service.utils.json.JsonMapper;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 分页结果流式输出为JSON, 在Page.toJsonString()的格式上增加nextContinuation和otherData:
+ * {"pageSize":..,"pageNo":..,"totalCount":..,"listData":[..],"nextContinuation":..,"otherData":{..}}
+ * nextContinuation和otherData只在不为null时输出, 不带这两项时与Page.toJsonString()相同, list为null时listData输出为空字符串.
+ * 逐行写入输出流, 不生成中间的Map和String; 行数据可以是Iterator(如MongoDBUtil.iterateByFilter返回的游标),
+ * 边解码边输出
+ */
+public final class PageJsonWriter {
+
+	private PageJsonWriter() {
+	}
+
+	/**
+	 * 把分页对象写入输出流(UTF-8), 写完后flush, 不关闭输出流
+	 * @param out
+	 * @param page
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, Page<?> page) throws IOException {
+		Iterator<?> rows = page.getList() == null ? null : page.getList().iterator();
+		write(out, page.getPageNo(), page.getPageSize(), page.getCount(), rows, page.getNextContinuation(), page.getOtherData());
+	}
+
+	/**
+	 * 把分页信息和行数据写入输出流(UTF-8), 写完后flush, 不关闭输出流和rows
+	 * @param out
+	 * @param pageNo
+	 * @param pageSize
+	 * @param count 总记录数
+	 * @param rows 当前页数据
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, int pageNo, int pageSize, long count, Iterator<?> rows) throws IOException {
+		write(out, pageNo, pageSize, count, rows, null, null);
+	}
+
+	/**
+	 * 把分页信息和行数据写入输出流(UTF-8), 写完后flush, 不关闭输出流和rows
+	 * @param out
+	 * @param pageNo
+	 * @param pageSize
+	 * @param count 总记录数
+	 * @param rows 当前页数据, 为null时listData输出为空字符串
+	 * @param nextContinuation 键集分页的续页标记, 为null时不输出
+	 * @param otherData 外加数据集, 为null时不输出
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, int pageNo, int pageSize, long count, Iterator<?> rows,
+			String nextContinuation, Map<String, Object> otherData) throws IOException {
+		JsonMapper mapper = JsonMapper.getInstance();
+		JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.writeStartObject();
+		generator.writeNumberField("pageSize", pageSize);
+		generator.writeNumberField("pageNo", pageNo);
+		generator.writeNumberField("totalCount", count);
+		if (rows == null) {
+			// 与JsonMapper的空值处理一致, 输出空字符串
+			generator.writeStringField("listData", "");
+		} else {
+			generator.writeArrayFieldStart("listData");
+			writeRows(mapper, generator, rows);
+			generator.writeEndArray();
+		}
+		if (nextContinuation != null) {
+			generator.writeStringField("nextContinuation", nextContinuation);
+		}
+		if (otherData != null) {
+			generator.writeFieldName("otherData");
+			mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE).writeValue(generator, otherData);
+		}
+		generator.writeEndObject();
+		generator.flush();
+	}
+
+	private static void writeRows(JsonMapper mapper, JsonGenerator generator, Iterator<?> rows) throws IOException {
+		// 一页的数据通常是同一类型, 只在类型变化时取writer; 不在每行后flush, 由generator的缓冲区攒满再写出
+		Class<?> rowClass = null;
+		ObjectWriter rowWriter = null;
+		while (rows.hasNext()) {
+			Object row = rows.next();
+			if (row == null) {
+				// 与JsonMapper的空值处理一致, 输出空字符串
+				generator.writeString("");
+				continue;
+			}
+			if (row.getClass() != rowClass) {
+				rowClass = row.getClass();
+				rowWriter = mapper.writerFor(rowClass).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+			}
+			rowWriter.writeValue(generator, row);
+		}
+	}
+}
@@ -10,11 +10,19 @@ import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 反射工具类.
  * 提供调用getter/setter方法, 访问私有变量, 调用私有方法, 获取泛型类型Class, 被AOP过的真实类等工具函数.
+ * 按类缓存查找到的Field、Method和getter/setter的MethodHandle, 找不到的也缓存, 重复访问不再遍历父类;
+ * 多级属性名只拆分一次.
  * @author calvin
  * @version 2013-01-15
  */
@@ -29,15 +37,30 @@ public class Reflections {
 	
 	private static Logger logger = LoggerFactory.getLogger(Reflections.class);
 
+	/**
+	 * 找不到Field/Method时缓存的占位
+	 */
+	private static final Object NONE = new Object();
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private static final ConcurrentMap<Class<?>, ClassMembers> MEMBERS = new ConcurrentHashMap<Class<?>, ClassMembers>();
+
+	/**
+	 * 属性名 -> 拆分好的getter/setter方法名
+	 */
+	private static final ConcurrentMap<String, PropertyPath> PATHS = new ConcurrentHashMap<String, PropertyPath>();
+
 	/**
 	 * 调用Getter方法.
 	 * 支持多级，如：对象名.对象名.方法
 	 */
 	public static Object invokeGetter(Object obj, String propertyName) {
 		Object object = obj;
-		for (String name : StringUtils.split(propertyName, ".")){
-			String getterMethodName = GETTER_PREFIX + StringUtils.capitalize(name);
-			object = invokeMethod(object, getterMethodName, new Class[] {}, new Object[] {});
+		for (String getterName : pathOf(propertyName).getterNames) {
+			object = invokeGetterMethod(object, getterName);
 		}
 		return object;
 	}
@@ -47,16 +70,20 @@ public class Reflections {
 	 * 支持多级，如：对象名.对象名.方法
 	 */
 	public static void invokeSetter(Object obj, String propertyName, Object value) {
+		PropertyPath path = pathOf(propertyName);
 		Object object = obj;
-		String[] names = StringUtils.split(propertyName, ".");
-		for (int i=0; i<names.length; i++){
-			if(i<names.length-1){
-				String getterMethodName = GETTER_PREFIX + StringUtils.capitalize(names[i]);
-				object = invokeMethod(object, getterMethodName, new Class[] {}, new Object[] {});
-			}else{
-				String setterMethodName = SETTER_PREFIX + StringUtils.capitalize(names[i]);
-				invokeMethodByName(object, setterMethodName, new Object[] { value });
-			}
+		for (int i = 0; i < path.getterNames.length - 1; i++) {
+			object = invokeGetterMethod(object, path.getterNames[i]);
+		}
+		Validate.notNull(object, "object can't be null");
+		MethodHandle setter = membersOf(object.getClass()).setter(path.setterName);
+		if (setter == null) {
+			throw new IllegalArgumentException("Could not find method [" + path.setterName + "] on target [" + object + "]");
+		}
+		try {
+			setter.invokeExact(object, value);
+		} catch (Throwable t) {
+			throw convertInvocationThrowable(t);
 		}
 	}
 
@@ -141,7 +168,11 @@ public class Reflections {
 	public static Field getAccessibleField(final Object obj, final String fieldName) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(fieldName, "fieldName can't be blank");
-		for (Class<?> superClass = obj.getClass(); superClass != Object.class; superClass = superClass.getSuperclass()) {
+		return membersOf(obj.getClass()).field(fieldName);
+	}
+
+	private static Field findAccessibleField(final Class<?> clazz, final String fieldName) {
+		for (Class<?> superClass = clazz; superClass != Object.class; superClass = superClass.getSuperclass()) {
 			try {
 				Field field = superClass.getDeclaredField(fieldName);
 				makeAccessible(field);
@@ -165,8 +196,12 @@ public class Reflections {
 			final Class<?>... parameterTypes) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(methodName, "methodName can't be blank");
+		return membersOf(obj.getClass()).method(methodName, parameterTypes);
+	}
 
-		for (Class<?> searchType = obj.getClass(); searchType != Object.class; searchType = searchType.getSuperclass()) {
+	private static Method findAccessibleMethod(final Class<?> clazz, final String methodName,
+			final Class<?>... parameterTypes) {
+		for (Class<?> searchType = clazz; searchType != Object.class; searchType = searchType.getSuperclass()) {
 			try {
 				Method method = searchType.getDeclaredMethod(methodName, parameterTypes);
 				makeAccessible(method);
@@ -189,8 +224,11 @@ public class Reflections {
 	public static Method getAccessibleMethodByName(final Object obj, final String methodName) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(methodName, "methodName can't be blank");
+		return membersOf(obj.getClass()).methodByName(methodName);
+	}
 
-		for (Class<?> searchType = obj.getClass(); searchType != Object.class; searchType = searchType.getSuperclass()) {
+	private static Method findAccessibleMethodByName(final Class<?> clazz, final String methodName) {
+		for (Class<?> searchType = clazz; searchType != Object.class; searchType = searchType.getSuperclass()) {
 			Method[] methods = searchType.getDeclaredMethods();
 			for (Method method : methods) {
 				if (method.getName().equals(methodName)) {
@@ -285,6 +323,156 @@ public class Reflections {
 
 	}
 	
+	private static Object invokeGetterMethod(Object object, String getterName) {
+		Validate.notNull(object, "object can't be null");
+		MethodHandle getter = membersOf(object.getClass()).getter(getterName);
+		if (getter == null) {
+			throw new IllegalArgumentException("Could not find method [" + getterName + "] on target [" + object + "]");
+		}
+		try {
+			return (Object) getter.invokeExact(object);
+		} catch (Throwable t) {
+			throw convertInvocationThrowable(t);
+		}
+	}
+
+	/**
+	 * 与Method.invoke时的异常转换保持一致: 参数类型不符为IllegalArgumentException, 方法本身抛出的异常包装为RuntimeException
+	 */
+	private static RuntimeException convertInvocationThrowable(Throwable t) {
+		if (t instanceof ClassCastException) {
+			return new IllegalArgumentException(t);
+		}
+		return new RuntimeException(t);
+	}
+
+	private static ClassMembers membersOf(Class<?> clazz) {
+		ClassMembers members = MEMBERS.get(clazz);
+		if (members == null) {
+			members = new ClassMembers(clazz);
+			ClassMembers exists = MEMBERS.putIfAbsent(clazz, members);
+			if (exists != null) {
+				members = exists;
+			}
+		}
+		return members;
+	}
+
+	private static PropertyPath pathOf(String propertyName) {
+		PropertyPath path = PATHS.get(propertyName);
+		if (path == null) {
+			path = new PropertyPath(propertyName);
+			PATHS.putIfAbsent(propertyName, path);
+		}
+		return path;
+	}
+
+	/**
+	 * 多级属性拆分后的getter方法名和最后一级的setter方法名
+	 */
+	private static final class PropertyPath {
+
+		private final String[] getterNames;
+
+		private final String setterName;
+
+		private PropertyPath(String propertyName) {
+			String[] names = StringUtils.split(propertyName, ".");
+			this.getterNames = new String[names.length];
+			for (int i = 0; i < names.length; i++) {
+				getterNames[i] = GETTER_PREFIX + StringUtils.capitalize(names[i]);
+			}
+			this.setterName = names.length == 0 ? null : SETTER_PREFIX + StringUtils.capitalize(names[names.length - 1]);
+		}
+	}
+
+	/**
+	 * 一个类查找过的成员, 值为NONE表示找不到
+	 */
+	private static final class ClassMembers {
+
+		private final Class<?> clazz;
+
+		private final ConcurrentMap<String, Object> fields = new ConcurrentHashMap<String, Object>();
+
+		private final ConcurrentMap<String, Object> methods = new ConcurrentHashMap<String, Object>();
+
+		private final ConcurrentMap<String, Object> methodsByName = new ConcurrentHashMap<String, Object>();
+
+		private final ConcurrentMap<String, Object> getters = new ConcurrentHashMap<String, Object>();
+
+		private final ConcurrentMap<String, Object> setters = new ConcurrentHashMap<String, Object>();
+
+		private ClassMembers(Class<?> clazz) {
+			this.clazz = clazz;
+		}
+
+		private Field field(String name) {
+			Object field = fields.get(name);
+			if (field == null) {
+				field = cache(fields, name, findAccessibleField(clazz, name));
+			}
+			return field == NONE ? null : (Field) field;
+		}
+
+		private Method method(String name, Class<?>[] parameterTypes) {
+			String key = parameterTypes.length == 0 ? name : name + Arrays.toString(parameterTypes);
+			Object method = methods.get(key);
+			if (method == null) {
+				method = cache(methods, key, findAccessibleMethod(clazz, name, parameterTypes));
+			}
+			return method == NONE ? null : (Method) method;
+		}
+
+		private Method methodByName(String name) {
+			Object method = methodsByName.get(name);
+			if (method == null) {
+				method = cache(methodsByName, name, findAccessibleMethodByName(clazz, name));
+			}
+			return method == NONE ? null : (Method) method;
+		}
+
+		/**
+		 * 无参数的getter, 返回值统一为Object
+		 */
+		private MethodHandle getter(String name) {
+			Object getter = getters.get(name);
+			if (getter == null) {
+				Method method = method(name, new Class<?>[0]);
+				getter = cache(getters, name, method == null ? null : unreflect(method, GETTER_TYPE));
+			}
+			return getter == NONE ? null : (MethodHandle) getter;
+		}
+
+		/**
+		 * 按方法名匹配的setter, 只接受一个参数
+		 */
+		private MethodHandle setter(String name) {
+			Object setter = setters.get(name);
+			if (setter == null) {
+				Method method = methodByName(name);
+				setter = cache(setters, name, method == null || method.getParameterTypes().length != 1 ? null
+						: unreflect(method, SETTER_TYPE));
+			}
+			return setter == NONE ? null : (MethodHandle) setter;
+		}
+
+		private static MethodHandle unreflect(Method method, MethodType type) {
+			try {
+				// asType把参数和返回值转换为Object, setter的返回值直接丢弃
+				return MethodHandles.lookup().unreflect(method).asType(type);
+			} catch (IllegalAccessException e) {
+				throw convertReflectionExceptionToUnchecked(e);
+			}
+		}
+
+		private static Object cache(ConcurrentMap<String, Object> map, String key, Object value) {
+			Object cached = value == null ? NONE : value;
+			Object exists = map.putIfAbsent(key, cached);
+			return exists != null ? exists : cached;
+		}
+	}
+
 	/**
 	 * 将反射时的checked exception转换为unchecked exception.
 	 */
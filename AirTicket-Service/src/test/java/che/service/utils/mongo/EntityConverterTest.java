@@ -0,0 +1,89 @@
+package che.service.utils.mongo;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntityConverterTest {
+
+    public static class Order extends BaseMongoEntity<Order> {
+
+        private String Status;
+
+        private Integer Price;
+
+        private Set<String> Tags;
+
+        private Document Contact;
+    }
+
+    private static Order loadedOrder() {
+        Order order = new Order();
+        order.Status = "NEW";
+        order.Price = 100;
+        order.Tags = new HashSet<String>(Arrays.asList("vip", "night"));
+        order.Contact = new Document("Name", "Li").append("Phone", new Document("Mobile", "138").append("Home", "010"));
+        order.resetChanges();
+        return order;
+    }
+
+    @Test
+    public void unchangedEntityHasNoChanges() {
+        Order order = loadedOrder();
+
+        assertTrue(order.toUpdateDocument().isEmpty());
+    }
+
+    @Test
+    public void changedFieldsAreSet() {
+        Order order = loadedOrder();
+        order.Status = "PAID";
+
+        assertEquals(new Document("$set", new Document("Status", "PAID")), order.toUpdateDocument());
+    }
+
+    @Test
+    public void nestedChangesUseDottedPaths() {
+        Order order = loadedOrder();
+        order.Contact.get("Phone", Document.class).put("Mobile", "139");
+        order.Contact.get("Phone", Document.class).remove("Home");
+
+        Document expected = new Document("$set", new Document("Contact.Phone.Mobile", "139"))
+                .append("$unset", new Document("Contact.Phone.Home", ""));
+        assertEquals(expected, order.toUpdateDocument());
+    }
+
+    @Test
+    public void nullFieldsAreUnset() {
+        Order order = loadedOrder();
+        order.Price = null;
+
+        assertEquals(new Document("$unset", new Document("Price", "")), order.toUpdateDocument());
+    }
+
+    @Test
+    public void setFieldIsComparedAsSet() {
+        Order order = loadedOrder();
+        assertTrue(order.toUpdateDocument().isEmpty());
+
+        order.Tags.add("refund");
+
+        Document update = order.toUpdateDocument();
+        assertEquals(1, update.size());
+        assertEquals(order.Tags, update.get("$set", Document.class).get("Tags"));
+    }
+
+    @Test
+    public void untrackedEntitySetsAllNonNullFields() {
+        Order order = new Order();
+        order.Status = "NEW";
+
+        assertEquals(new Document("$set", new Document("Status", "NEW")), order.toUpdateDocument());
+    }
+}
@@ -0,0 +1,72 @@
+package che.service.utils.mongo;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EntityRedisSerializerTest {
+
+    public static class BaseFare extends BaseMongoEntity<BaseFare> {
+
+        private String Id;
+
+        private Date UpdateTime;
+    }
+
+    public static class Fare extends BaseFare {
+
+        private String DepCity;
+
+        private Long Price;
+
+        private Set<String> Cabins;
+
+        private Document Rule;
+    }
+
+    public static class OtherFare extends BaseMongoEntity<OtherFare> {
+
+        private String DepCity;
+    }
+
+    @Test
+    public void roundTripKeepsSuperclassFieldsAndId() {
+        Fare fare = new Fare();
+        ((BaseFare) fare).Id = "F001";
+        ((BaseFare) fare).UpdateTime = new Date(1500000000000L);
+        fare.DepCity = "PEK";
+        fare.Price = 1280L;
+        fare.Cabins = new LinkedHashSet<String>(Arrays.asList("Y", "C"));
+        fare.Rule = new Document("Refund", true).append("Fee", 0.1);
+        ObjectId id = new ObjectId();
+        fare.setMongoId(id);
+
+        EntityRedisSerializer<Fare> serializer = new EntityRedisSerializer<Fare>(Fare.class);
+        Fare copy = serializer.deserialize(serializer.serialize(fare));
+
+        assertEquals("F001", ((BaseFare) copy).Id);
+        assertEquals(new Date(1500000000000L), ((BaseFare) copy).UpdateTime);
+        assertEquals("PEK", copy.DepCity);
+        assertEquals(Long.valueOf(1280L), copy.Price);
+        assertEquals(fare.Cabins, copy.Cabins);
+        assertEquals(fare.Rule, copy.Rule);
+        assertEquals(id, copy.getMongoId());
+    }
+
+    @Test
+    public void dataOfAnotherLayoutReadsAsNull() {
+        OtherFare other = new OtherFare();
+        other.DepCity = "PEK";
+        byte[] bytes = new EntityRedisSerializer<OtherFare>(OtherFare.class).serialize(other);
+
+        assertNull(new EntityRedisSerializer<Fare>(Fare.class).deserialize(bytes));
+    }
+}
@@ -0,0 +1,93 @@
+package che.service.utils.mongo;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KeysetTokenTest {
+
+    private static final ObjectId ID = new ObjectId("5a0b1c2d3e4f506172839405");
+
+    private static BsonDocument render(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    }
+
+    @Test
+    public void roundTripKeepsValueTypes() {
+        Date departure = new Date(1508227200000L);
+        KeysetToken token = KeysetToken.parse(new KeysetToken("DepartTime", -1, departure, ID).toString());
+
+        assertEquals("DepartTime", token.getOrderKey());
+        assertEquals(-1, token.getRule());
+        assertEquals(departure, token.getValue());
+        assertEquals(ID, token.getId());
+    }
+
+    @Test
+    public void roundTripKeepsNullValue() {
+        KeysetToken token = KeysetToken.parse(new KeysetToken("Price", 1, null, ID).toString());
+
+        assertNull(token.getValue());
+        assertEquals(ID, token.getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsGarbage() {
+        KeysetToken.parse("not-a-token");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toFilterRejectsAnotherOrderKey() {
+        KeysetToken.parse(new KeysetToken("Price", 1, 100, ID).toString()).toFilter("DepartTime", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toFilterRejectsAnotherRule() {
+        KeysetToken.parse(new KeysetToken("Price", 1, 100, ID).toString()).toFilter("Price", -1);
+    }
+
+    @Test
+    public void ascendingContinuesAfterValueThenId() {
+        Bson filter = new KeysetToken("Price", 1, 100, ID).toFilter("Price", 1);
+
+        assertEquals(BsonDocument.parse("{$or: [{Price: {$gt: 100}}, {Price: 100, _id: {$gt: {$oid: '" + ID + "'}}}]}"),
+                render(filter));
+    }
+
+    @Test
+    public void descendingKeepsNullsAtTheEnd() {
+        Bson filter = new KeysetToken("Price", -1, 100, ID).toFilter("Price", -1);
+
+        assertEquals(BsonDocument.parse("{$or: [{Price: {$lt: 100}}, {Price: 100, _id: {$lt: {$oid: '" + ID + "'}}},"
+                + " {Price: null}]}"), render(filter));
+    }
+
+    @Test
+    public void ascendingFromNullContinuesIntoValues() {
+        Bson filter = new KeysetToken("Price", 1, null, ID).toFilter("Price", 1);
+
+        assertEquals(BsonDocument.parse("{$or: [{Price: null, _id: {$gt: {$oid: '" + ID + "'}}},"
+                + " {Price: {$ne: null}}]}"), render(filter));
+    }
+
+    @Test
+    public void descendingFromNullStaysInNulls() {
+        Bson filter = new KeysetToken("Price", -1, null, ID).toFilter("Price", -1);
+
+        assertEquals(BsonDocument.parse("{Price: null, _id: {$lt: {$oid: '" + ID + "'}}}"), render(filter));
+    }
+
+    @Test
+    public void idOrderUsesOnlyTheId() {
+        Bson filter = new KeysetToken("_id", 1, ID, ID).toFilter("_id", 1);
+
+        assertEquals(BsonDocument.parse("{_id: {$gt: {$oid: '" + ID + "'}}}"), render(filter));
+    }
+}
@@ -0,0 +1,67 @@
+package che.service.utils.mongo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MongoConcurrencyLimiterTest {
+
+    public static class Report extends BaseMongoEntity<Report> {
+
+        private String Name;
+    }
+
+    @Before
+    public void setUp() {
+        // 阈值为0, 每个参与调整的操作都视为慢操作
+        MongoConcurrencyLimiter.configure(true, 10, 1, 10, 0, 0, "");
+    }
+
+    @After
+    public void tearDown() {
+        MongoConcurrencyLimiter.configure(false, 150, 5, 150, 500, 0, "");
+    }
+
+    private static int limit() {
+        for (Map<String, Object> group : MongoConcurrencyLimiter.snapshotAsMaps()) {
+            if (MongoConcurrencyLimiter.DEFAULT_GROUP.equals(group.get("group"))) {
+                return (Integer) group.get("limit");
+            }
+        }
+        throw new AssertionError("no default group");
+    }
+
+    @Test
+    public void longRunningOperationsDoNotShrinkTheLimit() {
+        MongoConcurrencyLimiter.acquireLongRunning(Report.class).release();
+        assertEquals(10, limit());
+
+        MongoConcurrencyLimiter.acquire(Report.class).release();
+        assertEquals(9, limit());
+    }
+
+    @Test
+    public void longRunningOperationsStillOccupyPermits() {
+        MongoConcurrencyLimiter.Permit[] permits = new MongoConcurrencyLimiter.Permit[10];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = MongoConcurrencyLimiter.acquireLongRunning(Report.class);
+        }
+        assertNull(MongoConcurrencyLimiter.acquire(Report.class));
+        for (MongoConcurrencyLimiter.Permit permit : permits) {
+            permit.release();
+        }
+    }
+
+    @Test(expected = MongoConcurrencyLimiter.MongoLimitExceededException.class)
+    public void acquireOrThrowRejectsWhenFull() {
+        for (int i = 0; i < 10; i++) {
+            MongoConcurrencyLimiter.acquire(Report.class);
+        }
+        MongoConcurrencyLimiter.acquireOrThrow(Report.class);
+    }
+}
@@ -0,0 +1,23 @@
+package che.service.utils.mongo;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+public class MongoDBUtilTest {
+
+    public static class Flight extends BaseMongoEntity<Flight> {
+
+        private String Id;
+    }
+
+    @Test
+    public void findMapByIdsWithNoIdsReturnsEmptyMap() {
+        Map<String, Flight> map = MongoDBUtil.findMapByIds("test", Flight.class, "Id", Collections.<String>emptyList());
+
+        assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+package che.service.utils.mongo;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class MongoQueryCacheTest {
+
+    public static class BaseFlight extends BaseMongoEntity<BaseFlight> {
+
+        private String Id;
+
+        public String getId() {
+            return Id;
+        }
+
+        public void setId(String id) {
+            this.Id = id;
+        }
+    }
+
+    @MongoCache
+    public static class Flight extends BaseFlight {
+
+        private Set<String> Tags;
+
+        private SortedMap<String, Integer> Seats;
+
+        private List<String> Stops;
+
+        private Document Extra;
+    }
+
+    @Test
+    public void cachedEntityKeepsFieldTypesAndSuperclassFields() {
+        final Flight flight = new Flight();
+        flight.setId("CA1234");
+        flight.Tags = new HashSet<String>(Arrays.asList("night", "direct"));
+        flight.Seats = new TreeMap<String, Integer>(Collections.singletonMap("Y", 10));
+        flight.Stops = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList("PEK", "SHA")));
+        flight.Extra = new Document("Meal", new Document("Type", "A"));
+        Callable<Flight> loader = new Callable<Flight>() {
+            @Override
+            public Flight call() {
+                return flight;
+            }
+        };
+
+        MongoQueryCache.invalidateAll();
+        MongoQueryCache.get("test", Flight.class, "findOne", null, null, null, loader);
+        Flight cached = MongoQueryCache.get("test", Flight.class, "findOne", null, null, null, loader);
+
+        assertNotSame(flight, cached);
+        assertEquals("CA1234", cached.getId());
+        assertTrue(cached.Tags instanceof HashSet);
+        assertEquals(flight.Tags, cached.Tags);
+        assertTrue(cached.Seats instanceof TreeMap);
+        assertEquals(flight.Seats, cached.Seats);
+        assertEquals(flight.Stops, cached.Stops);
+        assertEquals(flight.Extra, cached.Extra);
+
+        cached.Tags.add("changed");
+        cached.Extra.get("Meal", Document.class).put("Type", "B");
+        Flight again = MongoQueryCache.get("test", Flight.class, "findOne", null, null, null, loader);
+        assertEquals(2, again.Tags.size());
+        assertEquals("A", again.Extra.get("Meal", Document.class).getString("Type"));
+    }
+}
@@ -0,0 +1,48 @@
+package che.service.utils.mongo;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MongoQueryTemplateTest {
+
+    public static class Fare extends BaseMongoEntity<Fare> {
+
+        private String DepCity;
+
+        private String ArrCity;
+
+        private Integer Price;
+    }
+
+    @Test
+    public void sameShapeWithDifferentDeclarationOrderIsNotShared() {
+        MongoQueryTemplate<Fare> first = MongoQueryTemplate.builder(Fare.class)
+                .gte("Price").eq("DepCity").lte("Price").build();
+        MongoQueryTemplate<Fare> second = MongoQueryTemplate.builder(Fare.class)
+                .gte("Price").lte("Price").eq("DepCity").build();
+
+        assertNotSame(first, second);
+        assertNotEquals(first.getId(), second.getId());
+
+        Document expected = new Document("Price", new Document("$gte", 100).append("$lte", 200))
+                .append("DepCity", "PEK");
+        assertEquals(expected, first.bind(100, "PEK", 200).getFilter());
+        assertEquals(expected, second.bind(100, 200, "PEK").getFilter());
+    }
+
+    @Test
+    public void sameDeclarationIsCompiledOnce() {
+        MongoQueryTemplate<Fare> first = MongoQueryTemplate.builder(Fare.class)
+                .eq("DepCity").eq("ArrCity").build();
+        MongoQueryTemplate<Fare> second = MongoQueryTemplate.builder(Fare.class)
+                .eq("DepCity").eq("ArrCity").build();
+
+        assertSame(first, second);
+        assertEquals(new Document("DepCity", "PEK").append("ArrCity", "SHA"), second.bind("PEK", "SHA").getFilter());
+    }
+}
@@ -0,0 +1,98 @@
+package che.service.utils.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class MongoWriteBehindBufferTest {
+
+    public static class AuditLog extends BaseMongoEntity<AuditLog> {
+
+        private String Action;
+
+        public AuditLog() {
+        }
+
+        public AuditLog(String action) {
+            this.Action = action;
+        }
+    }
+
+    /**
+     * 第一次写入时只有第一条成功, 其余记录需要重试
+     */
+    private static class PartialFailureBuffer extends MongoWriteBehindBuffer<AuditLog> {
+
+        private final List<List<ObjectId>> attempts = new ArrayList<List<ObjectId>>();
+
+        PartialFailureBuffer() {
+            super("test", AuditLog.class, 100, 100, 60000, OverflowPolicy.DROP);
+        }
+
+        @Override
+        List<AuditLog> insert(List<AuditLog> batch) {
+            List<ObjectId> ids = new ArrayList<ObjectId>();
+            for (AuditLog log : batch) {
+                ids.add(log.getInsertId());
+            }
+            attempts.add(ids);
+            if (attempts.size() == 1) {
+                return new ArrayList<AuditLog>(batch.subList(1, batch.size()));
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    @Test
+    public void retriesOnlyFailedRecordsWithTheSameIds() {
+        PartialFailureBuffer buffer = new PartialFailureBuffer();
+        buffer.add(new AuditLog("a"));
+        buffer.add(new AuditLog("b"));
+        buffer.add(new AuditLog("c"));
+
+        buffer.flushAll();
+        assertEquals(1, buffer.getFlushed());
+        assertEquals(2, buffer.getPending());
+
+        // close等待退避结束后重试
+        buffer.close();
+
+        assertEquals(2, buffer.attempts.size());
+        List<ObjectId> first = buffer.attempts.get(0);
+        List<ObjectId> second = buffer.attempts.get(1);
+        for (ObjectId id : first) {
+            assertNotNull(id);
+        }
+        assertEquals(first.subList(1, 3), second);
+        assertEquals(3, buffer.getFlushed());
+        assertEquals(2, buffer.getRetried());
+        assertEquals(0, buffer.getFailed());
+        assertEquals(0, buffer.getPending());
+    }
+
+    @Test
+    public void dropsRecordsAfterMaxRetries() {
+        MongoWriteBehindBuffer<AuditLog> buffer = new MongoWriteBehindBuffer<AuditLog>("test", AuditLog.class, 100, 100,
+                60000, MongoWriteBehindBuffer.OverflowPolicy.DROP) {
+            @Override
+            List<AuditLog> insert(List<AuditLog> batch) {
+                return batch;
+            }
+        };
+        buffer.add(new AuditLog("a"));
+        buffer.add(new AuditLog("b"));
+
+        buffer.close();
+
+        assertEquals(0, buffer.getFlushed());
+        assertEquals(2, buffer.getFailed());
+        assertEquals(2 * MongoWriteBehindBuffer.MAX_RETRIES, buffer.getRetried());
+        assertEquals(0, buffer.getPending());
+    }
+}
@@ -0,0 +1,118 @@
+package che.service.utils.mongo;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PermitCursorTest {
+
+    public static class Log extends BaseMongoEntity<Log> {
+
+        private String Name;
+    }
+
+    private static class ListCursor implements MongoCursor<String> {
+
+        private final Iterator<String> iterator;
+
+        private boolean closed;
+
+        ListCursor(String... values) {
+            this.iterator = Arrays.asList(values).iterator();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public String next() {
+            return iterator.next();
+        }
+
+        @Override
+        public String tryNext() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        MongoConcurrencyLimiter.configure(true, 10, 1, 10, 500, 0, "");
+    }
+
+    @After
+    public void tearDown() {
+        MongoConcurrencyLimiter.configure(false, 150, 5, 150, 500, 0, "");
+    }
+
+    private static int inflight() {
+        for (Map<String, Object> group : MongoConcurrencyLimiter.snapshotAsMaps()) {
+            if (MongoConcurrencyLimiter.DEFAULT_GROUP.equals(group.get("group"))) {
+                return (Integer) group.get("inflight");
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void permitIsHeldUntilTheCursorIsExhausted() {
+        ListCursor delegate = new ListCursor("a", "b");
+        MongoCursor<String> cursor = new PermitCursor<String>(delegate, MongoConcurrencyLimiter.acquireLongRunning(Log.class));
+
+        assertEquals(1, inflight());
+        cursor.next();
+        cursor.next();
+        assertEquals(1, inflight());
+        cursor.hasNext();
+        assertEquals(0, inflight());
+
+        cursor.close();
+        assertTrue(delegate.closed);
+        assertEquals(0, inflight());
+    }
+
+    @Test
+    public void closeReleasesThePermitOnce() {
+        MongoCursor<String> cursor = new PermitCursor<String>(new ListCursor("a", "b"), MongoConcurrencyLimiter.acquireLongRunning(Log.class));
+        MongoConcurrencyLimiter.Permit other = MongoConcurrencyLimiter.acquire(Log.class);
+
+        cursor.close();
+        cursor.close();
+        assertEquals(1, inflight());
+
+        other.release();
+        assertEquals(0, inflight());
+    }
+}
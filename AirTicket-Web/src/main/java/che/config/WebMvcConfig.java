@@ -0,0 +1,24 @@
+package che.config;
+
+import che.service.utils.page.PageHttpMessageConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Spring MVC配置
+ */
+@Configuration
+public class WebMvcConfig extends WebMvcConfigurerAdapter {
+
+    /**
+     * 返回PageJsonBody的接口流式写出{pageSize, pageNo, totalCount, listData, nextContinuation, otherData},
+     * 只处理PageJsonBody, 直接返回Page的接口仍由Jackson输出
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new PageHttpMessageConverter());
+    }
+}
@@ -0,0 +1,46 @@
+package che.controller;
+
+import che.service.utils.mongo.MongoConcurrencyLimiter;
+import che.service.utils.mongo.MongoMetrics;
+import che.service.utils.mongo.MongoQueryCache;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * mongo操作统计, 按总耗时倒序, 用于压测时定位热点collection和操作.
+ * 只提供查询, 清零只能通过JMX(che:type=MongoMetrics的reset)
+ */
+@RestController
+@RequestMapping("/mongo/metrics")
+public class MongoMetricsController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    public List<Map<String, Object>> metrics(@RequestParam(value = "top", defaultValue = "0") int top) {
+        List<Map<String, Object>> list = MongoMetrics.snapshotAsMaps();
+        if (top > 0 && top < list.size()) {
+            return list.subList(0, top);
+        }
+        return list;
+    }
+
+    /**
+     * 各collection分组当前的并发限制和拒绝数
+     */
+    @RequestMapping(value = "/limiters", method = RequestMethod.GET)
+    public List<Map<String, Object>> limiters() {
+        return MongoConcurrencyLimiter.snapshotAsMaps();
+    }
+
+    /**
+     * 有@MongoCache的collection的查询缓存命中率
+     */
+    @RequestMapping(value = "/cache", method = RequestMethod.GET)
+    public List<Map<String, Object>> cache() {
+        return MongoQueryCache.snapshotAsMaps();
+    }
+}